@@ -0,0 +1,56 @@
+package pl.edu.agh.doppler.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Device speaker.
+ */
+public class AndroidAudioSink implements AudioSink {
+
+    private final int sampleRate;
+
+    /** Object used to play our main tone. */
+    private final AudioTrack audioTrack;
+
+    /**
+     * @param sampleRate sample rate in Hz
+     * @param bufferSize minimal number of samples queued in the track
+     */
+    public AndroidAudioSink(int sampleRate, int bufferSize) {
+        this.sampleRate = sampleRate;
+        int bytes = Math.max(2 * bufferSize, AudioTrack.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT));
+        audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                bytes, AudioTrack.MODE_STREAM);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int write(short[] samples, int offset, int length) {
+        return audioTrack.write(samples, offset, length);
+    }
+
+    @Override
+    public void play() {
+        audioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        audioTrack.pause();
+        //a paused track doesn't drain, a blocked write only returns once the queue is emptied
+        audioTrack.flush();
+    }
+
+    @Override
+    public void release() {
+        audioTrack.release();
+    }
+}
@@ -0,0 +1,110 @@
+package pl.edu.agh.doppler.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/**
+ * Device microphone.
+ */
+public class AndroidAudioSource implements AudioSource {
+
+    /**
+     * Sampling frequency - 44,1kHz, the only one guaranteed to work on all devices
+     * @see <a href="http://pl.wikipedia.org/wiki/Próbkowanie">Wikipedia</a>
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    private final int sampleRate;
+
+    private final int channelCount;
+
+    private final int bufferSize;
+
+    private final AudioRecord microphone;
+
+    /**
+     * Opens mono microphone tuned for voice recognition, which skips most of the processing
+     * that could filter out near ultrasound.
+     *
+     * @param sampleRate sample rate in Hz
+     */
+    public AndroidAudioSource(int sampleRate) {
+        this(sampleRate, 1);
+    }
+
+    /**
+     * Opens microphone tuned for voice recognition. Stereo needs two microphones, when the device
+     * can't record stereo mono is opened instead, see {@link #getChannelCount()}.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param channelCount 1 for mono, 2 for stereo
+     */
+    public AndroidAudioSource(int sampleRate, int channelCount) {
+        if(channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Only mono and stereo are supported");
+        }
+        this.sampleRate = sampleRate;
+
+        AudioRecord record = null;
+        int size = 0;
+        if(channelCount == 2) {
+            size = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+            if(size > 0) {
+                record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, sampleRate,
+                        AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_16BIT, size);
+                if(record.getState() != AudioRecord.STATE_INITIALIZED) {
+                    record.release();
+                    record = null;
+                }
+            }
+        }
+        if(record == null) {
+            //stereo not supported
+            channelCount = 1;
+            size = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, sampleRate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, size);
+        }
+        this.channelCount = channelCount;
+        bufferSize = size;
+        microphone = record;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void start() {
+        //you might get an error here if another app hasn't released the microphone
+        microphone.startRecording();
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        int samplesRead = microphone.read(buffer, offset, length);
+        return samplesRead < 0 ? -1 : samplesRead;
+    }
+
+    @Override
+    public void stop() {
+        microphone.stop();
+    }
+
+    @Override
+    public void release() {
+        microphone.release();
+    }
+}
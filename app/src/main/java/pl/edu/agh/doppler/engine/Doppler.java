@@ -1,12 +1,14 @@
 package pl.edu.agh.doppler.engine;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
-import pl.edu.agh.doppler.fft.FFT;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import pl.edu.agh.doppler.fft.WindowFunction;
 
 public class Doppler {
 
@@ -14,79 +16,132 @@ public class Doppler {
     private static Doppler doppler;
 
     //prelimiary frequency stuff
-    public static final float PRELIM_FREQ = 20000;
-    public static final int PRELIM_FREQ_INDEX = 20000;
+    public static final float PRELIM_FREQ = EngineFactory.DEFAULT_CARRIER;
     public static final int MIN_FREQ = 19000;
     public static final int MAX_FREQ = 21000;
 
-
-    public static final int RELEVANT_FREQ_WINDOW = 33;
-
-    //modded from the soundwave paper. frequency bins are scanned until the amp drops below
-    // 1% of the primary tone peak
-    private static final double MAX_VOL_RATIO_DEFAULT = 0.1;
-    private static final double SECOND_PEAK_RATIO = 0.3;
-    public static double maxVolRatio = MAX_VOL_RATIO_DEFAULT;
-
-    //for bandwidth positions in array
-    private static final int LEFT_BANDWIDTH = 0;
-    private static final int RIGHT_BANDWIDTH = 1;
-
-    //I want to add smoothing
-    private static final float SMOOTHING_TIME_CONSTANT = 0.5f;
+    public static final int RELEVANT_FREQ_WINDOW = BandwidthAnalyzer.RELEVANT_FREQ_WINDOW;
 
     //utility variables for reading and parsing through audio data.
     /** Microphone reference. */
-    private AudioRecord microphone;
+    private final AudioSource source;
 
     /** Tone player. */
-    private Player player;
+    private final Player player;
 
-    /**
-     * Sampling frequency - 44,1kHz
-     * @see <a href="http://pl.wikipedia.org/wiki/Próbkowanie">Wikipedia</a>
-     */
-    private static final int SAMPLE_RATE = 44100;
+    /** Sampling frequency of {@link #source}. */
+    private final int sampleRate;
 
-    private int frequencyIndex;
+    /** Number of interleaved channels of {@link #source}. */
+    private final int channels;
 
-    /** Buffer for reading microphone data. */
+    /** Buffer for interleaved samples of a single hop, taken from {@link #ring}. */
     private short[] buffer;
 
-    /** Array for data passed to fft. Contains scaled {@link #buffer} data. */
-    private float[] fftBuffer;
+    /** Buffer for reading microphone data on {@link #captureThread}, one read chunk of the profile. */
+    private short[] captureBuffer;
 
-    /** Holds the freqs of the previous iteration. */
-    private float[] oldFrequencies;
+    /** Samples passed from {@link #captureThread} to {@link #analysisThread}. */
+    private final SampleRingBuffer ring;
 
-    /** Buffer size. */
-    private int bufferSize;
+    /** Thread reading microphone into {@link #ring}. */
+    private Thread captureThread;
 
-    /** Handler used to run move detecting in background. */
-    private Handler mHandler;
+    /** Thread taking frames from {@link #ring} and detecting gestures. */
+    private Thread analysisThread;
 
-    private boolean repeat;
+    /** Handler used to deliver gestures on main thread. */
+    private final Handler mHandler;
 
-    /** Fast fourier transform. */
-    private FFT fft;
+    /** Gestures dropped by {@link #gestureBus} so far, only used by {@link #analysisThread}. */
+    private long droppedGestures;
 
-    /** Calibrator. */
-    private Calibrator calibrator;
+    /** Passes gestures from {@link #analysisThread} to listeners. */
+    private final GestureEventBus gestureBus;
 
-    /** Gestures listener. */
+    /** Listener set with {@link #setGestureListener(OnGestureListener)}. */
     private OnGestureListener gestureListener;
 
-    /** Previous move direction. */
-    private int previousDirection = 0;
+    private volatile boolean repeat;
+
+    /** Settings of the detection pipeline, shared with offline analysis of recordings. */
+    private final EngineFactory factory = new EngineFactory();
+
+    /** Frequencies of carriers played by {@link #player}, corrected by {@link #tracker}. */
+    private float[] playedCarriers = factory.getCarriers();
 
-    /** Counter for direction changes. */
-    private int directionChanges;
+    /** {@link #playedCarriers} for {@link #player}, kept so retuning doesn't allocate. */
+    private double[] toneFrequencies = toDouble(playedCarriers);
 
-    /** Cycles left to read. */
-    private int cyclesLeftToRead = -1;
+    /** Retunes carriers drifting in the spectrum, null when tracking is off. */
+    private CarrierTracker tracker;
 
-    /** Cycles left to start recording detecting. */
-    private int cyclesToRefresh;
+    /** Whether {@link #player} still plays previous carriers. */
+    private boolean carriersChanged;
+
+    /** Detection pipeline, created on every {@link #start()}. */
+    private MultiChannelEngine engine;
+
+    /** Channel with the strongest movement when the last gesture was detected. */
+    private volatile int gestureChannel;
+
+    /** Body of {@link #captureThread}. Only moves samples from microphone to {@link #ring}. */
+    private final Runnable captureTask = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            while(repeat) {
+                int samplesRead = source.read(captureBuffer, 0, captureBuffer.length);
+                if(samplesRead < 0) {
+                    //source exhausted
+                    break;
+                }
+                ring.write(captureBuffer, 0, samplesRead);
+            }
+        }
+    };
+
+    /** Body of {@link #analysisThread}. */
+    private final Runnable analysisTask = new Runnable() {
+        @Override
+        public void run() {
+            int hop = engine.getHopSize() * channels;
+            while(repeat) {
+                if(ring.read(buffer, 0, hop) < hop) {
+                    //interrupted by pause
+                    break;
+                }
+                boolean wasReady = engine.isReady();
+                int gesture = engine.process(buffer, 0);
+                if(!wasReady && engine.isReady()) {
+                    for(int channel = 0; channel < channels; ++channel) {
+                        BandwidthAnalyzer analyzer = engine.getEngine(channel).getAnalyzer();
+                        for(int c = 0; c < analyzer.getCarrierCount(); ++c) {
+                            Log.i("DOPPLER", "Frequency optimized channel:" + channel + " idx:" + analyzer.getFrequencyIndex(c) + " frequency" + analyzer.getFrequency(c));
+                        }
+                    }
+                }
+                if(gesture > GestureDetector.NOTHING) {
+                    gestureChannel = engine.getDominantChannel();
+                }
+                if(tracker != null && tracker.update()) {
+                    tracker.getFrequencies(playedCarriers);
+                    for(int c = 0; c < playedCarriers.length; ++c) {
+                        toneFrequencies[c] = playedCarriers[c];
+                    }
+                    //doesn't block, the tone continues at new frequencies from its phase
+                    player.changeToneFrequency(toneFrequencies);
+                    if(Log.isLoggable("DOPPLER", Log.DEBUG)) {
+                        Log.d("DOPPLER", "Carriers retuned:" + Arrays.toString(playedCarriers));
+                    }
+                }
+                deliver(gesture);
+            }
+            if(ring.getDroppedSamples() > 0) {
+                Log.w("DOPPLER", "Analysis fell behind, dropped samples: " + ring.getDroppedSamples());
+            }
+        }
+    };
 
     /** Returns singleton instance of doppler object. */
     public static Doppler getDoppler() {
@@ -96,27 +151,43 @@ public class Doppler {
         return doppler;
     }
 
-    /** Constructor. For initializing variables. */
+    /**
+     * Constructor. Uses device microphones and speaker. Both microphones are recorded when the device
+     * has two, so {@link #getGestureChannel()} tells on which side a gesture was made. Devices that
+     * can't record stereo are recorded in mono: gestures are detected the same way, but
+     * {@link #getChannelCount()} is 1 and the gesture channel is always 0.
+     */
     private Doppler() {
-        //write a check to see if stereo is supported
-        bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        buffer = new short[bufferSize];
-
-        frequencyIndex = PRELIM_FREQ_INDEX;
-
-        player = new Player(PRELIM_FREQ);
-
-        microphone = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, SAMPLE_RATE,
-                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
-
-        mHandler = new Handler();
-
-        calibrator = new Calibrator();
+        this(new AndroidAudioSource(AndroidAudioSource.DEFAULT_SAMPLE_RATE, 2),
+                new AndroidAudioSink(AndroidAudioSource.DEFAULT_SAMPLE_RATE,
+                        Player.CHUNK_SIZE * Player.QUEUED_CHUNKS));
     }
 
-    /** Sets frequency index. */
-    private void setFrequency(float frequency) {
-        this.frequencyIndex = fft.freqToIndex(frequency);
+    /**
+     * Creates detection reading given source and playing primary tone on given sink. With several
+     * channels every channel is analyzed separately and in parallel, see {@link MultiChannelEngine}.
+     *
+     * @param source audio input
+     * @param sink audio output, with the same sample rate as source
+     */
+    public Doppler(AudioSource source, AudioSink sink) {
+        this.source = source;
+        sampleRate = source.getSampleRate();
+        channels = source.getChannelCount();
+        buffer = new short[0];
+        captureBuffer = new short[0];
+        //one second of audio
+        ring = new SampleRingBuffer(sampleRate * channels, channels);
+
+        player = new Player(sink, PRELIM_FREQ);
+
+        mHandler = new Handler(Looper.getMainLooper());
+        gestureBus = new GestureEventBus(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        });
     }
 
     /**
@@ -125,383 +196,303 @@ public class Doppler {
      * @return true if started, false when error occurred
      */
     public boolean start() {
-        player.play();
+        if(repeat) {
+            return true;
+        }
+        if(!releaseThreads()) {
+            //the ring and the engine are still used, see pause()
+            Log.e("DOPPLER", "Previous detection threads are still running");
+            return false;
+        }
 
-        try {
-            //you might get an error here if another app hasn't released the microphone
-            microphone.startRecording();
-            repeat = true;
-
-            new Handler().postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    optimizeFrequency(MIN_FREQ, MAX_FREQ);
-                    //assuming fft.forward was already called;
-                    readMic();
-                }
-            }, 1000);
+        boolean playing;
+        if(carriersChanged) {
+            playedCarriers = factory.getCarriers();
+            toneFrequencies = toDouble(playedCarriers);
+            playing = player.changeToneFrequency(toneFrequencies);
+            carriersChanged = false;
+        } else {
+            playing = player.play();
+        }
+        if(!playing) {
+            //the tone thread of the last pause() still writes to the speaker
+            return false;
+        }
 
+        try {
+            source.start();
         } catch (Exception e) {
             e.printStackTrace();
             Log.e("Doppler", e.getMessage());
             return false;
         }
 
-        int bufferReadResult = microphone.read(buffer, 0, bufferSize);
-        bufferReadResult = getHigherTwoPower(bufferReadResult);
-        //get higher p2 because buffer needs to be "filled out" for FFT
-        fftBuffer = new float[getHigherTwoPower(bufferReadResult)];
-        fft = new FFT(getHigherTwoPower(bufferReadResult), SAMPLE_RATE);
+        //sizes follow the profile, not the minimal microphone buffer of the device
+        int timeSize = factory.getFrameSize(sampleRate);
+        int hop = factory.getHopSize(sampleRate);
+        int readSize = factory.getReadSize(sampleRate);
+        GestureEngine[] engines = factory.createEngines(sampleRate, channels, playedCarriers);
+        tracker = factory.createTracker(playedCarriers, engines);
+        engine = new MultiChannelEngine(engines, true, factory.getConfig());
+        if(buffer.length < hop * channels) {
+            buffer = new short[hop * channels];
+        }
+        if(captureBuffer.length != readSize * channels) {
+            captureBuffer = new short[readSize * channels];
+        }
+        Log.d("DOPPLER", "Profile:" + factory.getProfile() + " frame:" + timeSize + " hop:" + hop + " read:" + readSize);
+
+        //no thread uses the ring any more, so clearing it from here is safe
+        ring.clear();
+        gestureBus.resetIdle();
+        repeat = true;
+        captureThread = new Thread(captureTask, "DopplerCapture");
+        analysisThread = new Thread(analysisTask, "DopplerAnalysis");
+        captureThread.start();
+        analysisThread.start();
 
         return true;
     }
 
-    private int[] getBandwidth() {
-        readAndFFT();
-
-        //rename this
-        int primaryTone = frequencyIndex;
-        double normalizedVolume;
-        double primaryVolume = fft.getBand(primaryTone);
-        int leftBandwidth = 0;
-
-        do {
-            leftBandwidth++;
-            double volume = fft.getBand(primaryTone - leftBandwidth);
-            normalizedVolume = volume / primaryVolume;
-            //Log.d("DOPPLER", "primaryVol:" + primaryVolume + " vol:" + volume + " norm:" + normalizedVolume);
-        } while(normalizedVolume > maxVolRatio && leftBandwidth < RELEVANT_FREQ_WINDOW);
+    /**
+     * Sets how many samples are read between two bandwidth evaluations. With hop size smaller than
+     * the frame size frames overlap, so gestures are detected faster without shortening frames.
+     * When only a few bands have to be updated per hop, a sliding DFT is used instead of transforming
+     * whole frames. Takes effect on next {@link #start()}.
+     *
+     * @param hopSize samples per evaluation, 0 for the one of the profile
+     */
+    public void setHopSize(int hopSize) {
+        factory.setHopSize(hopSize);
+    }
 
+    /**
+     * Sets number of samples in every analyzed frame, independently of microphone buffer size.
+     * Takes effect on next {@link #start()}.
+     *
+     * @param frameSize power of two, 0 for the one of the profile
+     */
+    public void setFrameSize(int frameSize) {
+        factory.setFrameSize(frameSize);
+    }
 
-        //secondary bandwidths are for looking past the first minimum to search for "split off" peaks, as per the paper
-        int secondScanFlag = 0;
-        int secondaryLeftBandwidth = leftBandwidth;
+    /**
+     * Sets latency profile choosing frame size, hop size and microphone read size from the sample
+     * rate, see {@link EngineProfile}. Sizes set with {@link #setFrameSize(int)} and
+     * {@link #setHopSize(int)} take precedence. Takes effect on next {@link #start()}.
+     *
+     * @param profile latency profile, {@link EngineProfile#HIGH_RESOLUTION} by default
+     */
+    public void setProfile(EngineProfile profile) {
+        factory.setProfile(profile);
+    }
 
-        //second scan
-        do {
-            secondaryLeftBandwidth++;
-            double volume = fft.getBand(primaryTone - secondaryLeftBandwidth);
-            normalizedVolume = volume / primaryVolume;
+    /** Returns current latency profile. */
+    public EngineProfile getProfile() {
+        return factory.getProfile();
+    }
 
-            if(normalizedVolume > SECOND_PEAK_RATIO) {
-                secondScanFlag = 1;
-            }
+    /**
+     * Sets window applied to frames before transforming them. Sliding DFT (see {@link #setHopSize(int)})
+     * only works with {@link pl.edu.agh.doppler.fft.CosineSumWindow}s. Takes effect on next {@link #start()}.
+     *
+     * @param windowFunction window function, Hann by default
+     */
+    public void setWindow(WindowFunction windowFunction) {
+        factory.setWindow(windowFunction);
+    }
 
-            if(secondScanFlag == 1 && normalizedVolume < maxVolRatio) {
-                break;
-            }
-        } while(secondaryLeftBandwidth < RELEVANT_FREQ_WINDOW);
+    /**
+     * Sets whether frames are transformed in fixed point, straight from microphone samples. Faster on
+     * devices without a fast FPU, gives the same gestures. Takes effect on next {@link #start()}.
+     *
+     * @param fixedPoint true for fixed point, false for floats (default)
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        factory.setFixedPoint(fixedPoint);
+    }
 
-        if(secondScanFlag == 1) {
-            leftBandwidth = secondaryLeftBandwidth;
+    /**
+     * Sets carrier tones played and tracked at the same time, e.g. spread across 18-22kHz. All
+     * carriers are analyzed in the same spectrum and gestures follow the majority of them, so a single
+     * jammed carrier doesn't cause false gestures. Takes effect on next {@link #start()}.
+     *
+     * @param frequencies carrier frequencies in Hz, below half of the sample rate
+     */
+    public void setCarriers(float... frequencies) {
+        if(frequencies.length == 0) {
+            throw new IllegalArgumentException("At least one carrier is needed");
         }
-
-        int rightBandwidth = 0;
-
-        do {
-            rightBandwidth++;
-            double volume = fft.getBand(primaryTone + rightBandwidth);
-            normalizedVolume = volume / primaryVolume;
-        } while(normalizedVolume > maxVolRatio && rightBandwidth < RELEVANT_FREQ_WINDOW);
-
-        secondScanFlag = 0;
-        int secondaryRightBandwidth = 0;
-        do {
-            secondaryRightBandwidth++;
-            double volume = fft.getBand(primaryTone + secondaryRightBandwidth);
-            normalizedVolume = volume / primaryVolume;
-
-            if(normalizedVolume > SECOND_PEAK_RATIO) {
-                secondScanFlag = 1;
-            }
-
-            if(secondScanFlag == 1 && normalizedVolume < maxVolRatio) {
-                break;
+        for(float frequency : frequencies) {
+            if(frequency <= 0 || frequency >= sampleRate / 2) {
+                throw new IllegalArgumentException("Carrier frequency must be between 0 and " + sampleRate / 2);
             }
-        } while(secondaryRightBandwidth < RELEVANT_FREQ_WINDOW);
-
-        if(secondScanFlag == 1) {
-            rightBandwidth = secondaryRightBandwidth;
         }
-
-        return new int[] {leftBandwidth, rightBandwidth};
-
+        factory.setCarriers(frequencies);
+        carriersChanged = true;
     }
 
     /**
-     * Reads data from microphone.
-     * Calls itself recursively while {@link #repeat}
+     * Sets whether carriers drifting in the spectrum are retuned to the center of their bands while
+     * detecting, see {@link CarrierTracker}. Takes effect on next {@link #start()}.
+     *
+     * @param carrierTracking true to retune (default), false to keep played frequencies
      */
-    private void readMic() {
-        //Log.d("DOPPLER", "readMic");
-        int[] bandwidths = getBandwidth();
-        int leftBandwidth = bandwidths[LEFT_BANDWIDTH];
-        int rightBandwidth = bandwidths[RIGHT_BANDWIDTH];
-
-        callGestureCallback(leftBandwidth, rightBandwidth);
-
-        maxVolRatio = calibrator.calibrate(maxVolRatio, leftBandwidth, rightBandwidth);
-
-        if(repeat) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    readMic();
-                }
-            });
-        }
+    public void setCarrierTracking(boolean carrierTracking) {
+        factory.setCarrierTracking(carrierTracking);
     }
 
-    /** Sets listener for movement detection. */
-    public void setGestureListener(final OnGestureListener gestureListener) {
-        this.gestureListener = gestureListener;
+    /** Returns number of analyzed microphone channels. */
+    public int getChannelCount() {
+        return channels;
     }
 
     /**
-     * Pause detecting.
-     *
-     * @return true if succeed, false when error occurred
+     * Returns channel with the strongest movement when the last gesture was detected. With a stereo
+     * microphone tells on which side of the device the gesture was made.
      */
-    public boolean pause() {
-        try {
-            microphone.stop();
-            player.pause();
-            repeat = false;
-            return true;
-        } catch(Exception e) {
-            e.printStackTrace();
-            return false;
-        }
+    public int getGestureChannel() {
+        return gestureChannel;
     }
 
     /**
-     * Calls appropriate method of {@link #gestureListener} when event occurs.
+     * Sets listener for movement detection, replacing the one set previously by this method.
+     * Listener is called on main thread unless {@link #setGestureExecutor(Executor)} says otherwise.
      *
-     * @param leftBandwidth left bandwidth value
-     * @param rightBandwidth right bandwidth value
+     * @param gestureListener listener, null to remove
      */
-    private void callGestureCallback(final int leftBandwidth, final int rightBandwidth) {
-        //early escape if need to refresh
-        if(gestureListener == null || cyclesToRefresh > 0) {
-            cyclesToRefresh--;
-            return;
+    public synchronized void setGestureListener(final OnGestureListener gestureListener) {
+        if(this.gestureListener != null) {
+            gestureBus.removeListener(this.gestureListener);
         }
-
-        int cyclesToRead = 5;
-        if(leftBandwidth > 4 || rightBandwidth > 4) {
-            Log.d("DOPPLER", "left:" + leftBandwidth + " right:" + rightBandwidth);
-            //implement gesture logic
-            int difference = leftBandwidth - rightBandwidth;
-            int direction = (int) Math.signum(difference);
-
-            if(direction != 0 && direction != previousDirection) {
-                //scan a 4 frame window to wait for taps or double taps
-                cyclesLeftToRead = cyclesToRead;
-                previousDirection = direction;
-                directionChanges++;
-            }
+        this.gestureListener = gestureListener;
+        if(gestureListener != null) {
+            gestureBus.addListener(gestureListener);
         }
+    }
 
-        cyclesLeftToRead--;
+    /**
+     * Adds listener for movement detection, called after the listeners added before. A single
+     * {@link GestureListener#onNothing()} is called when movement stops, not one per idle frame.
+     */
+    public void addGestureListener(GestureListener listener) {
+        gestureBus.addListener(listener);
+    }
 
-        if(cyclesLeftToRead == 0) {
-            if(directionChanges == 1) {
-                if(previousDirection == -1) {
-                    Log.d("DOPPLER", "PUSH!");
-                    gestureListener.onPush();
-                } else {
-                    Log.d("DOPPLER", "PULL!");
-                    gestureListener.onPull();
-                }
-            } else if(directionChanges == 2) {
-                Log.d("DOPPLER", "TAP!");
-                gestureListener.onTap();
-            } else {
-                Log.d("DOPPLER", "2 x TAP!");
-                gestureListener.onDoubleTap();
-            }
-            previousDirection = 0;
-            directionChanges = 0;
-            cyclesToRefresh = cyclesToRead;
-        } else {
-            gestureListener.onNothing();
-        }
+    public void removeGestureListener(GestureListener listener) {
+        gestureBus.removeListener(listener);
     }
 
     /**
-     * Smooths out freq
+     * Sets executor calling gesture listeners, main thread by default. Listeners never run on the
+     * analysis thread, so a slow listener doesn't delay detection; when listeners fall too far behind
+     * gestures are dropped instead, see {@link GestureEventBus}.
+     *
+     * @param executor executor of listener calls
      */
-    private void smoothOutFrequencies() {
-        for(int i = 0; i < fft.specSize(); ++i) {
-            float smoothedOutMag = SMOOTHING_TIME_CONSTANT * fft.getBand(i) + (1 - SMOOTHING_TIME_CONSTANT) * oldFrequencies[i];
-            fft.setBand(i, smoothedOutMag);
-        }
+    public void setGestureExecutor(Executor executor) {
+        gestureBus.setExecutor(executor);
     }
 
     /**
-     * Searches for frequency with maximum frequency.
+     * Pause detecting. Detection can't be started again until both threads have finished.
      *
-     * @param minFreq minimal frequency
-     * @param maxFreq maximum frequency
+     * @return true if succeed, false when error occurred or threads didn't finish in time
      */
-    private void optimizeFrequency(int minFreq, int maxFreq) {
-        readAndFFT();
-        int minInd = fft.freqToIndex(minFreq);
-        int maxInd = fft.freqToIndex(maxFreq);
-
-        int primaryInd = frequencyIndex;
-        for(int i = minInd; i <= maxInd; ++i) {
-            if(fft.getBand(i) > fft.getBand(primaryInd)) {
-                primaryInd = i;
+    public boolean pause() {
+        try {
+            repeat = false;
+            if(analysisThread != null) {
+                analysisThread.interrupt();
             }
+            //unblocks read on capture thread
+            source.stop();
+            joinQuietly(captureThread);
+            joinQuietly(analysisThread);
+            player.pause();
+            if(!releaseThreads()) {
+                //released by the next pause() or start() once they finish
+                Log.w("DOPPLER", "Detection threads didn't finish in time");
+                return false;
+            }
+            return true;
+        } catch(Exception e) {
+            e.printStackTrace();
+            return false;
         }
-
-        setFrequency(fft.indexToFreq(primaryInd));
-        Log.i("DOPPLER", "Frequency optimized idx:" + frequencyIndex + " frequency" + fft.indexToFreq(primaryInd));
     }
 
     /**
-     * Reads data from microphone.
-     * Applies Hanning windowing and then fft.
-     * On the end smooths out frequencies.
+     * Forgets finished capture and analysis threads and closes the engine they used.
      *
-     * @see <a href="http://dsp.stackexchange.com/questions/11312/why-should-one-use-windowing-functions-for-fft">
-     *     Why should we use windowing function for FFT</a>
+     * @return true if no thread is running, false if one still uses the ring or the engine
      */
-    private void readAndFFT() {
-        //copy into old freqs array
-        if(fft.specSize() != 0 && oldFrequencies == null) {
-            oldFrequencies = new float[fft.specSize()];
+    private boolean releaseThreads() {
+        if((captureThread != null && captureThread.isAlive())
+                || (analysisThread != null && analysisThread.isAlive())) {
+            return false;
         }
-        for(int i = 0; i < fft.specSize(); ++i) {
-            oldFrequencies[i] = fft.getBand(i);
+        if(captureThread != null || analysisThread != null) {
+            captureThread = null;
+            analysisThread = null;
+            engine.close();
         }
+        return true;
+    }
 
-        int bufferReadResult = microphone.read(buffer, 0, bufferSize);
-        //Log.d("DOPPLER", "Shorts read: " + bufferReadResult);
-
-        for(int i = 0; i < bufferReadResult; i++) {
-            fftBuffer[i] = (float) buffer[i] / Short.MAX_VALUE;
+    /** Waits a while for given thread to finish. */
+    private static void joinQuietly(Thread thread) {
+        if(thread == null) {
+            return;
         }
-
-        //apply windowing
-        for(int i = 0; i < bufferReadResult; ++i) {
-            // Calculate & apply window symmetrically around center point
-            // Hanning (raised cosine) window
-            //float windowValue = (float) (0.5 + 0.5 * Math.cos(Math.PI * (float) i / (float) (bufferReadResult / 2)));
-            //if(i > bufferReadResult / 2) {
-            //    windowValue = 0;
-            //}
-            //fftBuffer[bufferReadResult / 2 + i] *= windowValue;
-            //fftBuffer[bufferReadResult / 2 - i] *= windowValue;
-            fftBuffer[i] = (float) (fftBuffer[i] * 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / bufferReadResult)));
+        try {
+            thread.join(1000);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        fft.forward(fftBuffer);
-
-        //apply smoothing
-        smoothOutFrequencies();
     }
 
     /**
-     * compute nearest higher power of two
-     * @see <a href="http://www.graphics.stanford.edu/~seander/bithacks.html">Round up to the next highest power of 2</a>
+     * Publishes gesture to listeners, see {@link GestureEventBus}. Never blocks.
+     *
+     * @param gesture one of {@link GestureDetector} constants
      */
-    private int getHigherTwoPower(int val) {
-        val--;
-        val |= val >> 1;
-        val |= val >> 2;
-        val |= val >> 8;
-        val |= val >> 16;
-        val++;
-        return (val);
+    private void deliver(int gesture) {
+        switch(gesture) {
+            case GestureDetector.PUSH:
+                Log.d("DOPPLER", "PUSH!");
+                break;
+            case GestureDetector.PULL:
+                Log.d("DOPPLER", "PULL!");
+                break;
+            case GestureDetector.TAP:
+                Log.d("DOPPLER", "TAP!");
+                break;
+            case GestureDetector.DOUBLE_TAP:
+                Log.d("DOPPLER", "2 x TAP!");
+                break;
+            default:
+                break;
+        }
+        gestureBus.publish(gesture);
+        if(gestureBus.getDroppedEvents() > droppedGestures) {
+            droppedGestures = gestureBus.getDroppedEvents();
+            Log.w("DOPPLER", "Gesture listeners fell behind, dropped gestures: " + droppedGestures);
+        }
+    }
+
+    /** Converts frequencies for {@link Player}. */
+    private static double[] toDouble(float[] frequencies) {
+        double[] result = new double[frequencies.length];
+        for(int i = 0; i < frequencies.length; ++i) {
+            result[i] = frequencies[i];
+        }
+        return result;
     }
 
     /**
      * Listener for most common gesture types.
      */
-    public interface OnGestureListener {
-        /** On swipe towards. */
-        void onPush();
-
-        /** On swipe away. */
-        void onPull();
-
-        /** On tap. */
-        void onTap();
-
-        /** On double tap. */
-        void onDoubleTap();
-
-        /** When no movement is detected. */
-        void onNothing();
-    }
-
-    private class Calibrator {
-
-        private final static int CYCLE_SIZE = 20;
-
-        private final static int UP_THRESHOLD = 5;
-
-        private final static int DOWN_THRESHOLD = 0;
-
-        private final static double UP_AMOUNT = 1.1;
-
-        private final static double DOWN_AMOUNT = 0.9;
-
-        private final static double MAX = 0.95;
-
-        private final static double MIN = 0.0001;
-
-        private int i = 0;
-
-        /** Direction in which move was detected last time. Used to detect direction changes. */
-        private int previousDirection = 0;
-
-        /** Counter for direction changes. */
-        private int directionChanges = 0;
-
-        /**
-         * Calibrates volume ratio.
-         *
-         * @param maxVolRatio actual volume ratio
-         * @param leftBandwidth left bandwidth value
-         * @param rightBandwidth right bandwidth value
-         *
-         * @return new maximum volume ration
-         */
-        public double calibrate(double maxVolRatio, final int leftBandwidth, final int rightBandwidth) {
-            //Log.d("DOPPLER","Start calibrating.");
-            //calculate difference between bandwidths
-            int difference = leftBandwidth - rightBandwidth;
-            //calculate direction
-            int direction = (int) Math.signum(difference);
-
-            //if direction change occurred take appropriate steps
-            if(previousDirection != direction) {
-                directionChanges++;
-                previousDirection = direction;
-            }
-
-            //if cycle finished
-            i = (i + 1) % CYCLE_SIZE;
-            if(i == 0) {
-                if(directionChanges >= UP_THRESHOLD) {
-                    maxVolRatio *= UP_AMOUNT;
-                } else if (directionChanges == DOWN_THRESHOLD) {
-                    maxVolRatio *= DOWN_AMOUNT;
-                }
-
-                //apply boundaries
-                maxVolRatio = maxVolRatio > MAX ? MAX : maxVolRatio;
-                maxVolRatio = maxVolRatio < MIN ? MIN : maxVolRatio;
-
-                //reset direction changes counter
-                directionChanges = 0;
-            }
-
-            //Log.d("DOPPLER","End calibrating.");
-            return maxVolRatio;
-        }
+    public interface OnGestureListener extends GestureListener {
     }
 }
@@ -1,92 +1,127 @@
 package pl.edu.agh.doppler.engine;
 
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioTrack;
+import android.os.Process;
 import android.util.Log;
 
 /**
- * Our main tone player.
+ * Our main tone player. Several tones can be mixed and played at once.
  * Based on answer in
  * <a href="http://stackoverflow.com/questions/2413426/playing-an-arbitrary-tone-with-android">this</a>
  * SO question.
+ * <p>
+ * Tones are synthesized while playing by a {@link ToneGenerator}, {@link #CHUNK_SIZE} samples at a
+ * time, and streamed to the sink. Their phase carries over between chunks and over frequency
+ * changes, so the waveform never jumps and there is no splatter around the carrier. A frequency
+ * change is heard after the chunks already queued in the sink, at most {@link #QUEUED_CHUNKS} of them.
  */
 public class Player {
 
-    /**
-     * Sampling frequency - 44,1kHz
-     * @see <a href="http://pl.wikipedia.org/wiki/Próbkowanie">Wikipedia</a>
-     */
-    private static final int SAMPLE_RATE = 44100;
+    /** Samples synthesized and written at once, about 12ms at 44.1kHz. */
+    public static final int CHUNK_SIZE = 512;
 
-    /** Sample duration in s. */
-    private static final int SAMPLE_DURATION = 5;
+    /** Chunks the sink should be able to queue, see {@link AndroidAudioSink}. */
+    public static final int QUEUED_CHUNKS = 4;
 
-    /** Amount of samples. Calculated based on {@link #SAMPLE_RATE} and {@link #SAMPLE_DURATION}. */
-    private static final int SAMPLES_NUM = SAMPLE_RATE * SAMPLE_DURATION;
+    /** Sink playing the tone. */
+    private final AudioSink sink;
 
-    /** Object used to play our main tone. */
-    private AudioTrack audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE,
-            AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
-            2*SAMPLES_NUM, AudioTrack.MODE_STATIC);
+    /** Synthesizes played tones. Only generates on {@link #thread}. */
+    private final ToneGenerator generator;
 
-    /** Tone frequency in hz. */
-    private double toneFrequency;
+    /** Chunk of synthesized samples. Only used by {@link #thread}. */
+    private final short[] chunk = new short[CHUNK_SIZE];
 
-    /** Array for sampled tune after fft. */
-    private byte[] generatedSound = new byte[2* SAMPLES_NUM];
+    /** Thread synthesizing and writing chunks while playing. */
+    private Thread thread;
 
-    public Player(final double frequency) {
-        setToneFrequency(frequency);
-    }
+    private volatile boolean playing;
 
-    /** Sets new frequency and starts playing immediately. */
-    public void changeToneFrequency(final double frequency) {
-        setToneFrequency(frequency);
-        play();
-    }
+    /** Body of {@link #thread}. */
+    private final Runnable synthesisTask = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            while(playing) {
+                generator.generate(chunk, 0, CHUNK_SIZE);
+                if(sink.write(chunk, 0, CHUNK_SIZE) < 0) {
+                    Log.e("DOPPLER", "Tone can't be written");
+                    break;
+                }
+            }
+            //lets play() start again after a failed write
+            playing = false;
+        }
+    };
 
-    /** Sets tone frequency. This stops playing! */
-    private void setToneFrequency(final double toneFrequency) {
-        this.toneFrequency = toneFrequency;
-        getTone();
+    public Player(final AudioSink sink, final double... frequencies) {
+        this.sink = sink;
+        generator = new ToneGenerator(sink.getSampleRate(), frequencies);
+    }
 
-        //set track to play
-        audioTrack.write(generatedSound, 0, 2*SAMPLES_NUM);
-        //set to loop for ever! :D
-        audioTrack.setLoopPoints(0, SAMPLES_NUM/2, -1);
+    /**
+     * Sets new frequencies and starts playing immediately. Doesn't wait for the change to be heard.
+     *
+     * @return true if playing, see {@link #play()}
+     */
+    public boolean changeToneFrequency(final double... frequencies) {
+        //playing tones continue at new frequencies from their current phase
+        generator.setFrequencies(frequencies);
+        return play();
     }
 
-    /** Start playing tone. */
-    public void play() {
+    /**
+     * Start playing tone.
+     *
+     * @return true if playing, false when the thread of the previous {@link #pause()} is still running
+     */
+    public synchronized boolean play() {
+        if(playing) {
+            return true;
+        }
+        if(!releaseThread()) {
+            //a second thread would write to the same sink
+            Log.e("DOPPLER", "Previous tone thread is still running");
+            return false;
+        }
         Log.i("DOPPLER","Start playing");
-        audioTrack.play();
+        playing = true;
+        sink.play();
+        thread = new Thread(synthesisTask, "DopplerTone");
+        thread.start();
+        return true;
     }
 
     /** Stops playing tone. */
-    public void pause() {
+    public synchronized void pause() {
+        //the thread may have stopped on its own after a failed write
+        if(thread == null) {
+            return;
+        }
         Log.i("DOPPLER","Stop playing");
-        audioTrack.pause();
-    }
-
-    /** Generates tone to be played. */
-    private void getTone() {
-        //generate sample values
-        double sample[] = new double[SAMPLES_NUM];
-        for(int i=0; i<SAMPLES_NUM; ++i) {
-            sample[i] = Math.sin(2 * Math.PI * i / (SAMPLE_RATE / toneFrequency));
+        playing = false;
+        //unblocks write on the synthesis thread
+        sink.pause();
+        try {
+            thread.join(1000);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        if(!releaseThread()) {
+            //released by the next pause() or play() once it finishes
+            Log.w("DOPPLER", "Tone thread didn't finish in time");
+        }
+    }
 
-        //convert to 16 bit pcm sound array
-        int i=0;
-        for(final double dVal : sample) {
-            //scale to max amplitude (mul values from range <-1,1> by max short value)
-            short val = (short) (dVal * Short.MAX_VALUE);
-
-            //in 16 bit pc, first byte is low order byte
-            generatedSound[i++] = (byte) (val & 0x00ff);
-            //second is big order, but we have to move it to make it byte
-            generatedSound[i++] = (byte) ((val & 0xff00) >>> 8);
+    /**
+     * Forgets finished synthesis thread.
+     *
+     * @return true if no thread is running, false if one still writes to the sink
+     */
+    private boolean releaseThread() {
+        if(thread != null && thread.isAlive()) {
+            return false;
         }
+        thread = null;
+        return true;
     }
 }
@@ -0,0 +1,91 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.edu.agh.doppler.fft.HannWindow;
+
+/**
+ * Bandwidth scan on spectra recorded from a synthetic microphone, and a whole detection hop.
+ * Scenario decides what the microphone hears besides the primary tone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BandwidthScanBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int MIN_FREQ = 19000;
+
+    private static final int MAX_FREQ = 21000;
+
+    private static final float CARRIER = 20000;
+
+    @Param({"2048", "4096"})
+    public int timeSize;
+
+    /** still: tone only, away/towards: shifted reflection, split: reflection separated from the tone. */
+    @Param({"still", "away", "towards", "split"})
+    public String scenario;
+
+    private BandwidthAnalyzer analyzer;
+
+    private GestureEngine engine;
+
+    private short[] hop;
+
+    @Setup
+    public void setUp() {
+        int hopSize = timeSize / 2;
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, CARRIER, 0.5, 0.01, false, 1);
+        if("away".equals(scenario)) {
+            source.setReflection(-60, 0.2);
+        } else if("towards".equals(scenario)) {
+            source.setReflection(60, 0.2);
+        } else if("split".equals(scenario)) {
+            source.setReflection(250, 0.3);
+        }
+        source.start();
+
+        //record one second of spectra, the last one is scanned
+        analyzer = new BandwidthAnalyzer(SAMPLE_RATE, timeSize, hopSize, new HannWindow(), MIN_FREQ, MAX_FREQ);
+        engine = new GestureEngine(new BandwidthAnalyzer(SAMPLE_RATE, timeSize, hopSize, new HannWindow(), MIN_FREQ, MAX_FREQ),
+                MIN_FREQ, MAX_FREQ, SAMPLE_RATE);
+        hop = new short[hopSize];
+        for(int i = 0; i < 2 * SAMPLE_RATE / hopSize; ++i) {
+            source.read(hop, 0, hopSize);
+            analyzer.process(hop, 0);
+            engine.process(hop, 0);
+        }
+        analyzer.optimizeFrequency(MIN_FREQ, MAX_FREQ);
+        source.release();
+    }
+
+    /** The four scan loops of {@link BandwidthAnalyzer#getBandwidth(double)}. */
+    @Benchmark
+    public int getBandwidth() {
+        int[] bandwidths = analyzer.getBandwidth(0.1);
+        return bandwidths[BandwidthAnalyzer.LEFT_BANDWIDTH] + bandwidths[BandwidthAnalyzer.RIGHT_BANDWIDTH];
+    }
+
+    /** Whole detection hop: scaling, transform, smoothing, scan, gesture state and calibration. */
+    @Benchmark
+    public int engineHop() {
+        return engine.process(hop, 0);
+    }
+}
@@ -0,0 +1,103 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forward transform at the frame sizes Doppler uses, and spectrum filling with each kind of averages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FourierTransformBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /** Bands read by the detection, a window of 33 bands on both sides of the tone. */
+    private static final int DETECTION_BANDS = 67;
+
+    @Param({"512", "1024", "2048", "4096", "8192"})
+    public int timeSize;
+
+    /** VECTOR falls back to RADIX_4 unless run with -Pvector, see benchmarks/build.gradle. */
+    @Param({"RADIX_2", "RADIX_4", "VECTOR"})
+    public FourierTransforms.Kernel kernel;
+
+    /** Averages computed by {@link FourierTransform#fillSpectrum()}: none, lin or log. */
+    @Param({"none", "lin", "log"})
+    public String averages;
+
+    private FFT fft;
+
+    private float[] samples;
+
+    @Setup
+    public void setUp() {
+        fft = FourierTransforms.create(timeSize, SAMPLE_RATE, kernel);
+        if("lin".equals(averages)) {
+            fft.linAverages(64);
+        } else if("log".equals(averages)) {
+            fft.logAverages(22, 3);
+        } else {
+            fft.noAverages();
+        }
+
+        samples = new float[timeSize];
+        for(int i = 0; i < timeSize; ++i) {
+            samples[i] = (float) (0.5 * Math.sin(2 * Math.PI * 20000 * i / SAMPLE_RATE)
+                    + 0.01 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        fft.forward(samples);
+    }
+
+    /** Whole forward transform, reading every band and average. */
+    @Benchmark
+    public float forward() {
+        fft.forward(samples);
+        return readAll();
+    }
+
+    /** Forward transform reading only the bands around one tone, like the detection does. */
+    @Benchmark
+    public float forwardFewBands() {
+        fft.forward(samples);
+        float sum = 0;
+        for(int i = timeSize / 4 - DETECTION_BANDS / 2; i <= timeSize / 4 + DETECTION_BANDS / 2; ++i) {
+            sum += fft.getBand(i);
+        }
+        return sum;
+    }
+
+    /** Magnitudes and averages only, on the spectrum left by the last transform. */
+    @Benchmark
+    public float fillSpectrum() {
+        fft.fillSpectrum();
+        return readAll();
+    }
+
+    /** Bands and averages are computed when read, so all of them are read. */
+    private float readAll() {
+        float sum = 0;
+        for(int i = 0; i < fft.specSize(); ++i) {
+            sum += fft.getBand(i);
+        }
+        for(int i = 0; i < fft.avgSize(); ++i) {
+            sum += fft.getAvg(i);
+        }
+        return sum;
+    }
+}
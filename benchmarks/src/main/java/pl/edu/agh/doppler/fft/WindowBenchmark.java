@@ -0,0 +1,78 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Windowing of a frame, alone and as part of a short-time transform hop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WindowBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Param({"512", "2048", "8192"})
+    public int timeSize;
+
+    @Param({"hann", "hamming", "blackman-harris", "kaiser"})
+    public String window;
+
+    private WindowFunction windowFunction;
+
+    private ShortTimeFourierTransform stft;
+
+    private float[] samples;
+
+    private float[] frame;
+
+    @Setup
+    public void setUp() {
+        if("hamming".equals(window)) {
+            windowFunction = new HammingWindow();
+        } else if("blackman-harris".equals(window)) {
+            windowFunction = new BlackmanHarrisWindow();
+        } else if("kaiser".equals(window)) {
+            windowFunction = new KaiserWindow(8);
+        } else {
+            windowFunction = new HannWindow();
+        }
+
+        samples = new float[timeSize];
+        for(int i = 0; i < timeSize; ++i) {
+            samples[i] = (float) Math.sin(2 * Math.PI * 20000 * i / SAMPLE_RATE);
+        }
+        frame = new float[timeSize];
+        stft = new ShortTimeFourierTransform(FourierTransforms.create(timeSize, SAMPLE_RATE), windowFunction, timeSize / 2);
+    }
+
+    /** Window applied in place to a copy of the frame, as done before every transform. */
+    @Benchmark
+    public float apply() {
+        System.arraycopy(samples, 0, frame, 0, timeSize);
+        windowFunction.apply(frame, 0, timeSize);
+        return frame[timeSize / 3];
+    }
+
+    /** One hop of the short-time transform: history shift, windowing and forward transform. */
+    @Benchmark
+    public float stftHop() {
+        stft.push(samples, 0);
+        return stft.transform().getBand(timeSize / 4);
+    }
+}
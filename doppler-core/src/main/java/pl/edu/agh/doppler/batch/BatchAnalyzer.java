@@ -0,0 +1,510 @@
+package pl.edu.agh.doppler.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import pl.edu.agh.doppler.engine.BandwidthAnalyzer;
+import pl.edu.agh.doppler.engine.CarrierTracker;
+import pl.edu.agh.doppler.engine.EngineFactory;
+import pl.edu.agh.doppler.engine.EngineProfile;
+import pl.edu.agh.doppler.engine.GestureDetector;
+import pl.edu.agh.doppler.engine.GestureEngine;
+import pl.edu.agh.doppler.engine.WavFileAudioSource;
+import pl.edu.agh.doppler.fft.FixedPointFFT;
+import pl.edu.agh.doppler.fft.FourierTransform;
+import pl.edu.agh.doppler.fft.FourierTransforms;
+import pl.edu.agh.doppler.fft.WindowFunction;
+
+/**
+ * Runs gesture detection over recorded mono 16 bit WAV files on a fork-join pool.
+ * <p>
+ * Files are analyzed in parallel. Every file is also split into segments of {@link #SEGMENT_HOPS}
+ * hops whose spectra are computed in parallel, each worker thread reusing its own transform. Only
+ * smoothing, bandwidth scan, gesture state and calibration, which depend on the previous frame,
+ * run in order. Results are the same as feeding the file to {@link GestureEngine} hop by hop,
+ * except when hops are short enough for the device to switch to a sliding DFT once the carrier is
+ * found (see {@link BandwidthAnalyzer#startTracking()}): batch analysis keeps transforming whole
+ * frames, so bandwidths may differ by rounding.
+ * <p>
+ * The pipeline is built by an {@link EngineFactory}, like on the device, so with default settings
+ * frame sizes follow the latency profile, spectra hold magnitudes, carriers are tracked and gestures
+ * are the ones the device would detect in the recording.
+ * <p>
+ * For every input <code>name.wav</code> a <code>name.dop</code> file is written:
+ * <pre>
+ *   int    magic "DOPB"
+ *   int    version, 1
+ *   int    sample rate
+ *   int    frame size
+ *   int    hop size
+ *   then 3 bytes per hop until end of file:
+ *   byte   left bandwidth
+ *   byte   right bandwidth
+ *   byte   gesture, one of GestureDetector constants
+ * </pre>
+ * Integers are big endian, as written by {@link DataOutputStream}.
+ */
+public class BatchAnalyzer {
+
+    public static final int MAGIC = 0x444f5042;
+
+    public static final int VERSION = 1;
+
+    public static final int MIN_FREQ = Math.round(EngineFactory.DEFAULT_CARRIER) - EngineFactory.CARRIER_SEARCH_RADIUS;
+
+    public static final int MAX_FREQ = Math.round(EngineFactory.DEFAULT_CARRIER) + EngineFactory.CARRIER_SEARCH_RADIUS;
+
+    /** Hops in a segment transformed by a single task. */
+    private static final int SEGMENT_HOPS = 64;
+
+    /** Segments of a file transformed ahead of the detection, bounds memory use. */
+    private static final int SEGMENTS_IN_FLIGHT = 16;
+
+    /** Builds the pipeline of every file. */
+    private final EngineFactory factory;
+
+    /** Transform and buffers of the current worker thread. */
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>();
+
+    /**
+     * @param factory settings of the pipeline, not changed while analyzing
+     */
+    public BatchAnalyzer(EngineFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Analyzes given files on given pool.
+     *
+     * @param pool pool running the analysis
+     * @param inputs WAV files
+     * @param outputDir directory for results, created if needed
+     * @return summary of every file, in order of inputs
+     */
+    public List<Summary> analyze(ForkJoinPool pool, List<File> inputs, File outputDir) {
+        if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IllegalArgumentException("Can't create output directory " + outputDir);
+        }
+        final List<FileTask> tasks = new ArrayList<FileTask>();
+        for(File input : inputs) {
+            tasks.add(new FileTask(input, new File(outputDir, outputName(input))));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        List<Summary> summaries = new ArrayList<Summary>();
+        for(FileTask task : tasks) {
+            summaries.add(task.join());
+        }
+        return summaries;
+    }
+
+    private static String outputName(File input) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".dop";
+    }
+
+    /**
+     * Analyzes single file. Reads it segment by segment, forks spectrum tasks and runs detection
+     * on their results in order.
+     */
+    private class FileTask extends RecursiveTask<Summary> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File input;
+
+        private final File output;
+
+        FileTask(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        protected Summary compute() {
+            Summary summary = new Summary(input);
+            WavFileAudioSource source = null;
+            DataOutputStream out = null;
+            try {
+                source = new WavFileAudioSource(input);
+                if(source.getChannelCount() != 1) {
+                    throw new IOException("Only mono files are supported, channels:" + source.getChannelCount());
+                }
+                int sampleRate = source.getSampleRate();
+                int frameSize = factory.getFrameSize(sampleRate);
+                int hopSize = factory.getHopSize(sampleRate);
+                float[] carriers = factory.getCarriers();
+                GestureEngine engine = factory.createEngines(sampleRate, 1, carriers)[0];
+                BandwidthAnalyzer analyzer = engine.getAnalyzer();
+                //retunes only bands of the analyzer, the recorded tone can't follow
+                CarrierTracker tracker = factory.createTracker(carriers, engine);
+
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sampleRate);
+                out.writeInt(frameSize);
+                out.writeInt(hopSize);
+
+                int overlap = frameSize - hopSize;
+                //frames before the start of the recording see silence, like a fresh transform
+                short[] history = new short[overlap];
+                ArrayDeque<SpectrumTask> pending = new ArrayDeque<SpectrumTask>();
+                while(true) {
+                    short[] samples = new short[overlap + SEGMENT_HOPS * hopSize];
+                    System.arraycopy(history, 0, samples, 0, overlap);
+                    int read = readFully(source, samples, overlap, SEGMENT_HOPS * hopSize);
+                    int hops = read / hopSize;
+                    if(hops == 0) {
+                        break;
+                    }
+                    System.arraycopy(samples, hops * hopSize, history, 0, overlap);
+
+                    SpectrumTask task = new SpectrumTask(samples, hops, sampleRate, frameSize, hopSize,
+                            analyzer.getFirstBand(), analyzer.getLastBand());
+                    task.fork();
+                    pending.add(task);
+                    if(pending.size() >= SEGMENTS_IN_FLIGHT) {
+                        detect(pending.poll(), engine, tracker, out, summary);
+                    }
+                    if(read < SEGMENT_HOPS * hopSize) {
+                        break;
+                    }
+                }
+                while(!pending.isEmpty()) {
+                    detect(pending.poll(), engine, tracker, out, summary);
+                }
+            } catch(IOException e) {
+                summary.error = describe(e);
+            } catch(RuntimeException e) {
+                //e.g. a corrupt header or an unsupported sample rate, other files are still analyzed
+                summary.error = describe(e);
+            } finally {
+                if(source != null) {
+                    source.release();
+                }
+                if(out != null) {
+                    try {
+                        out.close();
+                    } catch(IOException e) {
+                        if(summary.error == null) {
+                            summary.error = describe(e);
+                        }
+                    }
+                }
+            }
+            if(out != null && summary.error != null) {
+                //a partial output would look like the result of a shorter recording
+                output.delete();
+            }
+            return summary;
+        }
+
+        /** Waits for spectra of a segment and runs detection on them. */
+        private void detect(SpectrumTask task, GestureEngine engine, CarrierTracker tracker, DataOutputStream out,
+                            Summary summary) throws IOException {
+            task.join();
+            int bands = task.lastBand - task.firstBand + 1;
+            for(int i = 0; i < task.hops; ++i) {
+                int gesture = engine.processSpectrum(task.magnitudes, i * bands);
+                if(tracker != null) {
+                    tracker.update();
+                }
+                out.writeByte(engine.getLeftBandwidth());
+                out.writeByte(engine.getRightBandwidth());
+                out.writeByte(gesture);
+                summary.count(gesture);
+            }
+        }
+    }
+
+    private static String describe(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    /** Reads until buffer is full or source ends. */
+    private static int readFully(WavFileAudioSource source, short[] buffer, int offset, int length) {
+        int done = 0;
+        while(done < length) {
+            int read = source.read(buffer, offset + done, length - done);
+            if(read < 0) {
+                break;
+            }
+            done += read;
+        }
+        return done;
+    }
+
+    /**
+     * Computes spectra of consecutive frames of a segment, in the mode of the device analyzer: power
+     * or magnitudes, fixed point or floats. Segment starts with frameSize - hopSize samples of history.
+     */
+    private class SpectrumTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final short[] samples;
+
+        private final int hops;
+
+        private final int sampleRate;
+
+        private final int frameSize;
+
+        private final int hopSize;
+
+        private final int firstBand;
+
+        private final int lastBand;
+
+        /** Magnitudes or powers of bands firstBand to lastBand, frame after frame. */
+        private float[] magnitudes;
+
+        SpectrumTask(short[] samples, int hops, int sampleRate, int frameSize, int hopSize, int firstBand,
+                     int lastBand) {
+            this.samples = samples;
+            this.hops = hops;
+            this.sampleRate = sampleRate;
+            this.frameSize = frameSize;
+            this.hopSize = hopSize;
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+        }
+
+        @Override
+        protected void compute() {
+            Workspace workspace = workspaces.get();
+            if(workspace == null || workspace.sampleRate != sampleRate || workspace.frame.length != frameSize
+                    || workspace.firstBand != firstBand) {
+                workspace = new Workspace(sampleRate, frameSize, firstBand, lastBand);
+                workspaces.set(workspace);
+            }
+            FourierTransform fft = workspace.fft;
+            float[] frame = workspace.frame;
+            WindowFunction window = factory.getWindow();
+
+            int bands = lastBand - firstBand + 1;
+            float[] result = new float[hops * bands];
+            for(int h = 0; h < hops; ++h) {
+                int start = h * hopSize;
+                if(workspace.fixedPointFft != null) {
+                    //windowed by the transform, straight from raw samples
+                    workspace.fixedPointFft.forward(samples, start, 1);
+                } else {
+                    for(int i = 0; i < frameSize; ++i) {
+                        frame[i] = (float) samples[start + i] / Short.MAX_VALUE;
+                    }
+                    if(window != null) {
+                        window.apply(frame, 0, frameSize);
+                    }
+                    fft.forward(frame);
+                }
+                for(int b = 0; b < bands; ++b) {
+                    result[h * bands + b] = fft.getBand(firstBand + b);
+                }
+            }
+            magnitudes = result;
+        }
+    }
+
+    /** Transform and frame buffer owned by one worker thread. */
+    private class Workspace {
+
+        private final int sampleRate;
+
+        private final int firstBand;
+
+        private final FourierTransform fft;
+
+        /** Same as {@link #fft} when transforming in fixed point, null otherwise. */
+        private final FixedPointFFT fixedPointFft;
+
+        private final float[] frame;
+
+        Workspace(int sampleRate, int frameSize, int firstBand, int lastBand) {
+            this.sampleRate = sampleRate;
+            this.firstBand = firstBand;
+            frame = new float[frameSize];
+            if(factory.isFixedPoint()) {
+                fixedPointFft = new FixedPointFFT(frameSize, sampleRate, firstBand, lastBand, factory.getWindow());
+                fft = fixedPointFft;
+            } else {
+                fixedPointFft = null;
+                fft = FourierTransforms.forBands(frameSize, sampleRate, firstBand, lastBand);
+            }
+            fft.setPowerSpectrum(factory.isPowerSpectrum());
+        }
+    }
+
+    /** Result of a single file. */
+    public static class Summary {
+
+        public final File input;
+
+        public long hops;
+
+        /** Hops per gesture, indexed by {@link GestureDetector} constant. */
+        public final long[] gestures = new long[GestureDetector.DOUBLE_TAP + 1];
+
+        /** Error message, null when file was analyzed. */
+        public String error;
+
+        Summary(File input) {
+            this.input = input;
+        }
+
+        void count(int gesture) {
+            hops++;
+            if(gesture >= 0) {
+                gestures[gesture]++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if(error != null) {
+                return input + " error:" + error;
+            }
+            return input + " hops:" + hops + " push:" + gestures[GestureDetector.PUSH]
+                    + " pull:" + gestures[GestureDetector.PULL] + " tap:" + gestures[GestureDetector.TAP]
+                    + " doubleTap:" + gestures[GestureDetector.DOUBLE_TAP];
+        }
+    }
+
+    /** Usage of the options read by {@link #parseEngineOption(EngineFactory, String[], int)}. */
+    static final String ENGINE_USAGE = "[-profile LOW_LATENCY|BALANCED|HIGH_RESOLUTION] [-frame N] [-hop N] "
+            + "[-carriers F1,F2...] [-fixedPoint] [-power] [-noTracking]";
+
+    /**
+     * Reads a command line option of the pipeline, if the argument at given index is one:
+     * <ul>
+     *   <li><code>-profile NAME</code> latency profile, see {@link EngineProfile}</li>
+     *   <li><code>-frame N</code> and <code>-hop N</code> sizes overriding the profile</li>
+     *   <li><code>-carriers F1,F2...</code> played carrier frequencies in Hz</li>
+     *   <li><code>-fixedPoint</code> transforms in fixed point</li>
+     *   <li><code>-power</code> power spectrum instead of magnitudes, an approximation</li>
+     *   <li><code>-noTracking</code> no carrier tracking</li>
+     * </ul>
+     *
+     * @return index of the argument after the option, or <code>index</code> if it isn't one
+     */
+    static int parseEngineOption(EngineFactory factory, String[] args, int index) {
+        String arg = args[index];
+        if("-profile".equals(arg)) {
+            factory.setProfile(EngineProfile.valueOf(args[index + 1]));
+            return index + 2;
+        } else if("-frame".equals(arg)) {
+            factory.setFrameSize(Integer.parseInt(args[index + 1]));
+            return index + 2;
+        } else if("-hop".equals(arg)) {
+            factory.setHopSize(Integer.parseInt(args[index + 1]));
+            return index + 2;
+        } else if("-carriers".equals(arg)) {
+            String[] values = args[index + 1].split(",");
+            float[] carriers = new float[values.length];
+            for(int c = 0; c < values.length; ++c) {
+                carriers[c] = Float.parseFloat(values[c]);
+            }
+            factory.setCarriers(carriers);
+            return index + 2;
+        } else if("-fixedPoint".equals(arg)) {
+            factory.setFixedPoint(true);
+            return index + 1;
+        } else if("-power".equals(arg)) {
+            factory.setPowerSpectrum(true);
+            return index + 1;
+        } else if("-noTracking".equals(arg)) {
+            factory.setCarrierTracking(false);
+            return index + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     *   BatchAnalyzer [-threads N] [ENGINE OPTIONS] -out DIR FILE_OR_DIR...
+     * </pre>
+     * Engine options are the ones of {@link #parseEngineOption(EngineFactory, String[], int)}, device
+     * settings by default. Directories are searched for <code>.wav</code> files, not recursively.
+     */
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        EngineFactory factory = new EngineFactory();
+        File outputDir = null;
+        List<File> inputs = new ArrayList<File>();
+
+        for(int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            int next = parseEngineOption(factory, args, i);
+            if(next > i) {
+                i = next - 1;
+            } else if("-threads".equals(arg)) {
+                threads = Integer.parseInt(args[++i]);
+            } else if("-out".equals(arg)) {
+                outputDir = new File(args[++i]);
+            } else {
+                File file = new File(arg);
+                if(file.isDirectory()) {
+                    File[] files = file.listFiles();
+                    if(files != null) {
+                        Arrays.sort(files);
+                        for(File f : files) {
+                            if(f.getName().toLowerCase().endsWith(".wav")) {
+                                inputs.add(f);
+                            }
+                        }
+                    }
+                } else {
+                    inputs.add(file);
+                }
+            }
+        }
+        if(outputDir == null || inputs.isEmpty()) {
+            System.err.println("Usage: BatchAnalyzer [-threads N] " + ENGINE_USAGE + " -out DIR FILE_OR_DIR...");
+            System.exit(2);
+        }
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(factory);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Summary> summaries;
+        try {
+            summaries = analyzer.analyze(pool, inputs, outputDir);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long hops = 0;
+        int failed = 0;
+        for(Summary summary : summaries) {
+            System.out.println(summary);
+            hops += summary.hops;
+            if(summary.error != null) {
+                failed++;
+            }
+        }
+        System.out.printf("%d files, %d hops in %.1f s, %.0f hops/s on %d threads%n",
+                summaries.size(), hops, seconds, hops / seconds, threads);
+        if(failed > 0) {
+            System.exit(1);
+        }
+    }
+}
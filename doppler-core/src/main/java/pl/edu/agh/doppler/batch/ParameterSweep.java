@@ -0,0 +1,282 @@
+package pl.edu.agh.doppler.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pl.edu.agh.doppler.engine.BandwidthAnalyzer;
+import pl.edu.agh.doppler.engine.Calibrator;
+import pl.edu.agh.doppler.engine.DetectorConfig;
+import pl.edu.agh.doppler.engine.EngineFactory;
+import pl.edu.agh.doppler.engine.GestureDetector;
+import pl.edu.agh.doppler.engine.WavFileAudioSource;
+
+/**
+ * Evaluates many {@link DetectorConfig}s against spectra of one recording. Spectra are computed once
+ * into a {@link SpectrumCache}, then every configuration only runs the bandwidth scan, gesture
+ * detector and calibrator over them. Configurations are evaluated in parallel on a fork-join pool.
+ */
+public class ParameterSweep {
+
+    /** Gestures detected with a single configuration. */
+    public static class Result {
+
+        public final DetectorConfig config;
+
+        /** Hops per gesture, indexed by {@link GestureDetector} constant. */
+        public final long[] gestures = new long[GestureDetector.DOUBLE_TAP + 1];
+
+        /** Hops in which any bandwidth exceeded the movement threshold. */
+        public long movementHops;
+
+        Result(DetectorConfig config) {
+            this.config = config;
+        }
+    }
+
+    private ParameterSweep() {
+    }
+
+    /**
+     * Evaluates configurations in parallel.
+     *
+     * @param pool pool running the evaluation
+     * @param cache spectra of the recording
+     * @param configs configurations, windows not wider than cache margin
+     * @return results in order of configurations
+     */
+    public static List<Result> evaluate(ForkJoinPool pool, final SpectrumCache cache, List<DetectorConfig> configs) {
+        final List<Result> results = new ArrayList<Result>();
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for(DetectorConfig config : configs) {
+            if(config.getRelevantFreqBands(cache.getBandWidth()) > cache.getMargin()) {
+                throw new IllegalArgumentException("Window wider than cached margin: " + config);
+            }
+            final Result result = new Result(config);
+            results.add(result);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    evaluate(cache, result);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Evaluates single configuration on the calling thread.
+     */
+    public static Result evaluate(SpectrumCache cache, DetectorConfig config) {
+        Result result = new Result(config);
+        evaluate(cache, result);
+        return result;
+    }
+
+    private static void evaluate(SpectrumCache cache, Result result) {
+        DetectorConfig config = result.config;
+        float bandWidth = cache.getBandWidth();
+        GestureDetector detector = new GestureDetector(config, cache.getSampleRate(), cache.getHopSize(), bandWidth);
+        Calibrator calibrator = new Calibrator(config, cache.getSampleRate(), cache.getHopSize());
+        double maxVolRatio = config.getMaxVolRatio();
+        double secondPeakRatio = config.getSecondPeakRatio();
+        int window = config.getRelevantFreqBands(bandWidth);
+        int movement = config.getMovementBands(bandWidth);
+
+        FloatBuffer rows = cache.rows();
+        float[] row = new float[cache.getRowSize()];
+        int primary = cache.getMargin();
+        int[] bandwidths = new int[2];
+        boolean power = cache.isPowerSpectrum();
+        for(int h = 0; h < cache.getHops(); ++h) {
+            rows.get(row);
+            //thresholds squared like in BandwidthAnalyzer.getBandwidth
+            double volumeRatio = power ? maxVolRatio * maxVolRatio : maxVolRatio;
+            double peakRatio = power ? secondPeakRatio * secondPeakRatio : secondPeakRatio;
+            BandwidthAnalyzer.scanBandwidth(row, primary, volumeRatio, peakRatio, window, bandwidths);
+            int left = bandwidths[BandwidthAnalyzer.LEFT_BANDWIDTH];
+            int right = bandwidths[BandwidthAnalyzer.RIGHT_BANDWIDTH];
+
+            int gesture = detector.update(left, right);
+            if(gesture >= 0) {
+                result.gestures[gesture]++;
+            }
+            if(left > movement || right > movement) {
+                result.movementHops++;
+            }
+            maxVolRatio = calibrator.calibrate(maxVolRatio, left, right);
+        }
+    }
+
+    /**
+     * Builds every combination of given parameter values.
+     *
+     * @param axes values of parameters by name, see {@link #set(DetectorConfig, String, String)}
+     * @return cartesian product applied to default configuration
+     */
+    public static List<DetectorConfig> grid(Map<String, String[]> axes) {
+        List<DetectorConfig> configs = new ArrayList<DetectorConfig>();
+        configs.add(new DetectorConfig());
+        for(Map.Entry<String, String[]> axis : axes.entrySet()) {
+            List<DetectorConfig> next = new ArrayList<DetectorConfig>();
+            for(DetectorConfig config : configs) {
+                for(String value : axis.getValue()) {
+                    DetectorConfig copy = new DetectorConfig(config);
+                    set(copy, axis.getKey(), value);
+                    next.add(copy);
+                }
+            }
+            configs = next;
+        }
+        return configs;
+    }
+
+    /**
+     * Sets parameter by name. Names are the ones of {@link DetectorConfig} properties,
+     * e.g. <code>maxVolRatio</code> or <code>gestureWindow</code>.
+     */
+    public static void set(DetectorConfig config, String name, String value) {
+        switch(name) {
+            case "maxVolRatio": config.setMaxVolRatio(Double.parseDouble(value)); break;
+            case "secondPeakRatio": config.setSecondPeakRatio(Double.parseDouble(value)); break;
+            case "relevantFreqWindow": config.setRelevantFreqWindow(Integer.parseInt(value)); break;
+            case "gestureWindow": config.setGestureWindow(Integer.parseInt(value)); break;
+            case "movementBandwidth": config.setMovementBandwidth(Integer.parseInt(value)); break;
+            case "calibrationCycle": config.setCalibrationCycle(Integer.parseInt(value)); break;
+            case "upThreshold": config.setUpThreshold(Integer.parseInt(value)); break;
+            case "downThreshold": config.setDownThreshold(Integer.parseInt(value)); break;
+            case "upAmount": config.setUpAmount(Double.parseDouble(value)); break;
+            case "downAmount": config.setDownAmount(Double.parseDouble(value)); break;
+            case "maxVolRatioLimit": config.setMaxVolRatioLimit(Double.parseDouble(value)); break;
+            case "minVolRatioLimit": config.setMinVolRatioLimit(Double.parseDouble(value)); break;
+            default: throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+    }
+
+    /**
+     * Command line entry point:
+     * <pre>
+     *   ParameterSweep [-threads N] [ENGINE OPTIONS] [-cache FILE] (FILE.wav | -cache FILE) [-PARAM V1,V2...]...
+     * </pre>
+     * Engine options are the ones of {@link BatchAnalyzer}, except carrier tracking, and set how
+     * spectra are computed. Spectra of a WAV file are written to the cache file, or to a temporary
+     * file without <code>-cache</code>, with the cache file alone they are mapped from it. Prints one
+     * CSV line per configuration.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        EngineFactory factory = new EngineFactory();
+        File input = null;
+        File cacheFile = null;
+        Map<String, String[]> axes = new LinkedHashMap<String, String[]>();
+
+        for(int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            int next = BatchAnalyzer.parseEngineOption(factory, args, i);
+            if(next > i) {
+                i = next - 1;
+            } else if("-threads".equals(arg)) {
+                threads = Integer.parseInt(args[++i]);
+            } else if("-cache".equals(arg)) {
+                cacheFile = new File(args[++i]);
+            } else if(arg.startsWith("-")) {
+                axes.put(arg.substring(1), args[++i].split(","));
+            } else {
+                input = new File(arg);
+            }
+        }
+        if(input == null && cacheFile == null) {
+            System.err.println("Usage: ParameterSweep [-threads N] " + BatchAnalyzer.ENGINE_USAGE + " [-cache FILE] "
+                    + "(FILE.wav | -cache FILE) [-PARAM V1,V2...]...");
+            System.exit(2);
+        }
+
+        List<DetectorConfig> configs = grid(axes);
+
+        SpectrumCache cache;
+        if(input != null) {
+            if(cacheFile == null) {
+                cacheFile = File.createTempFile("spectra", ".cache");
+                cacheFile.deleteOnExit();
+            }
+            WavFileAudioSource source = new WavFileAudioSource(input);
+            try {
+                int sampleRate = source.getSampleRate();
+                float bandWidth = (float) sampleRate / factory.getFrameSize(sampleRate);
+                int margin = 0;
+                for(DetectorConfig config : configs) {
+                    margin = Math.max(margin, config.getRelevantFreqBands(bandWidth));
+                }
+                cache = SpectrumCache.record(source, factory, margin, cacheFile);
+            } finally {
+                source.release();
+            }
+        } else {
+            cache = SpectrumCache.map(cacheFile);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = evaluate(pool, cache, configs);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        StringBuilder header = new StringBuilder();
+        for(String name : axes.keySet()) {
+            header.append(name).append(',');
+        }
+        System.out.println(header + "push,pull,tap,doubleTap,nothing,movement");
+        for(Result result : results) {
+            StringBuilder line = new StringBuilder();
+            for(String name : axes.keySet()) {
+                line.append(get(result.config, name)).append(',');
+            }
+            line.append(result.gestures[GestureDetector.PUSH]).append(',')
+                    .append(result.gestures[GestureDetector.PULL]).append(',')
+                    .append(result.gestures[GestureDetector.TAP]).append(',')
+                    .append(result.gestures[GestureDetector.DOUBLE_TAP]).append(',')
+                    .append(result.gestures[GestureDetector.NOTHING]).append(',')
+                    .append(result.movementHops);
+            System.out.println(line);
+        }
+        System.err.printf("%d configurations x %d hops in %.1f s on %d threads%n",
+                configs.size(), cache.getHops(), seconds, threads);
+    }
+
+    /**
+     * Returns parameter by name, see {@link #set(DetectorConfig, String, String)}.
+     */
+    public static String get(DetectorConfig config, String name) {
+        switch(name) {
+            case "maxVolRatio": return String.valueOf(config.getMaxVolRatio());
+            case "secondPeakRatio": return String.valueOf(config.getSecondPeakRatio());
+            case "relevantFreqWindow": return String.valueOf(config.getRelevantFreqWindow());
+            case "gestureWindow": return String.valueOf(config.getGestureWindow());
+            case "movementBandwidth": return String.valueOf(config.getMovementBandwidth());
+            case "calibrationCycle": return String.valueOf(config.getCalibrationCycle());
+            case "upThreshold": return String.valueOf(config.getUpThreshold());
+            case "downThreshold": return String.valueOf(config.getDownThreshold());
+            case "upAmount": return String.valueOf(config.getUpAmount());
+            case "downAmount": return String.valueOf(config.getDownAmount());
+            case "maxVolRatioLimit": return String.valueOf(config.getMaxVolRatioLimit());
+            case "minVolRatioLimit": return String.valueOf(config.getMinVolRatioLimit());
+            default: throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package pl.edu.agh.doppler.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import pl.edu.agh.doppler.engine.AudioSource;
+import pl.edu.agh.doppler.engine.BandwidthAnalyzer;
+import pl.edu.agh.doppler.engine.EngineFactory;
+
+/**
+ * Smoothed spectra of a recording around its primary tone, one row of <code>2 * margin + 1</code>
+ * magnitudes per hop, primary tone in the middle. Everything that doesn't depend on
+ * {@link pl.edu.agh.doppler.engine.DetectorConfig} is computed once, so many configurations can be
+ * evaluated against the same spectra, see {@link ParameterSweep}.
+ * <p>
+ * Spectra are written to a file while they are computed and the file is mapped into memory, so
+ * long recordings never have to fit in the heap. Rows start with the first hop after the primary
+ * tone was found, like bandwidth evaluation in {@link pl.edu.agh.doppler.engine.GestureEngine}.
+ * Spectra are computed like on the device, see {@link EngineFactory}, but rows stay centered on the
+ * band the primary tone was found in: carriers are not tracked, so all configurations see the same
+ * rows.
+ */
+public class SpectrumCache {
+
+    public static final int MAGIC = 0x444f5053;
+
+    public static final int VERSION = 2;
+
+    /** Header size in bytes, rows follow. */
+    private static final int HEADER_SIZE = 36;
+
+    /** Offset of the primary band in the header, followed by the number of hops. */
+    private static final int PRIMARY_BAND_OFFSET = 24;
+
+    private final int sampleRate;
+
+    private final int frameSize;
+
+    private final int hopSize;
+
+    private final int margin;
+
+    private final int primaryBand;
+
+    private final int hops;
+
+    /** Whether rows hold squared magnitudes. */
+    private final boolean powerSpectrum;
+
+    /** Rows of all hops, read only. */
+    private final FloatBuffer rows;
+
+    private SpectrumCache(int sampleRate, int frameSize, int hopSize, int margin, int primaryBand,
+                          int hops, boolean powerSpectrum, FloatBuffer rows) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.margin = margin;
+        this.primaryBand = primaryBand;
+        this.hops = hops;
+        this.powerSpectrum = powerSpectrum;
+        this.rows = rows;
+    }
+
+    /**
+     * Computes spectra of the whole source. First second only settles the spectrum, then the primary
+     * tone is searched within {@link EngineFactory#CARRIER_SEARCH_RADIUS} of the first carrier.
+     * Every row is written to the file as soon as it is computed, then the file is mapped like
+     * with {@link #map(File)}.
+     *
+     * @param source mono source, read until its end
+     * @param factory settings of the spectrum: sizes, window, fixed point and power
+     * @param margin bands kept on each side of the primary tone, the widest window that can be evaluated
+     * @param file file receiving the spectra, overwritten
+     * @throws IOException when file can't be written
+     */
+    public static SpectrumCache record(AudioSource source, EngineFactory factory, int margin, File file)
+            throws IOException {
+        if(source.getChannelCount() != 1) {
+            throw new IllegalArgumentException("Only mono sources are supported");
+        }
+        int sampleRate = source.getSampleRate();
+        int carrier = Math.round(factory.getCarriers()[0]);
+        int minFreq = carrier - EngineFactory.CARRIER_SEARCH_RADIUS;
+        int maxFreq = carrier + EngineFactory.CARRIER_SEARCH_RADIUS;
+        BandwidthAnalyzer analyzer = factory.createAnalyzer(sampleRate, minFreq, maxFreq, margin);
+        int frameSize = analyzer.getTimeSize();
+        int hopSize = analyzer.getHopSize();
+        int width = 2 * margin + 1;
+
+        short[] hop = new short[hopSize];
+        ByteBuffer row = ByteBuffer.allocate(4 * width);
+        FloatBuffer rowFloats = row.asFloatBuffer();
+        int hops = 0;
+        int primaryBand = -1;
+        int samplesToSettle = sampleRate;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            //primary band and hops are filled in when recording ends
+            writeHeader(out, sampleRate, frameSize, hopSize, margin, primaryBand, hops, analyzer.isPowerSpectrum());
+            source.start();
+            while(readFully(source, hop) == hopSize) {
+                analyzer.process(hop, 0);
+                if(primaryBand < 0) {
+                    samplesToSettle -= hopSize;
+                    if(samplesToSettle <= 0) {
+                        analyzer.optimizeFrequency(minFreq, maxFreq);
+                        primaryBand = analyzer.getFrequencyIndex();
+                    }
+                    continue;
+                }
+
+                rowFloats.clear();
+                rowFloats.put(analyzer.getSpectrum(), primaryBand - margin, width);
+                out.write(row.array());
+                hops++;
+            }
+            source.stop();
+        } finally {
+            out.close();
+        }
+
+        RandomAccessFile header = new RandomAccessFile(file, "rw");
+        try {
+            header.seek(PRIMARY_BAND_OFFSET);
+            header.writeInt(primaryBand);
+            header.writeInt(hops);
+        } finally {
+            header.close();
+        }
+        return map(file);
+    }
+
+    private static void writeHeader(DataOutputStream out, int sampleRate, int frameSize, int hopSize, int margin,
+                                    int primaryBand, int hops, boolean powerSpectrum) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sampleRate);
+        out.writeInt(frameSize);
+        out.writeInt(hopSize);
+        out.writeInt(margin);
+        out.writeInt(primaryBand);
+        out.writeInt(hops);
+        out.writeInt(powerSpectrum ? 1 : 0);
+    }
+
+    private static int readFully(AudioSource source, short[] buffer) {
+        int done = 0;
+        while(done < buffer.length) {
+            int read = source.read(buffer, done, buffer.length - done);
+            if(read < 0) {
+                break;
+            }
+            done += read;
+        }
+        return done;
+    }
+
+    /**
+     * Maps spectra written by {@link #record(AudioSource, EngineFactory, int, File)} or
+     * {@link #save(File)} into memory. Rows are read from the file when needed,
+     * so the cache doesn't have to fit in the heap.
+     *
+     * @throws IOException when file can't be read or isn't a spectrum cache
+     */
+    public static SpectrumCache map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a spectrum cache: " + file);
+            }
+            if(buffer.getInt() != VERSION) {
+                throw new IOException("Unsupported spectrum cache version: " + file);
+            }
+            int sampleRate = buffer.getInt();
+            int frameSize = buffer.getInt();
+            int hopSize = buffer.getInt();
+            int margin = buffer.getInt();
+            int primaryBand = buffer.getInt();
+            int hops = buffer.getInt();
+            boolean powerSpectrum = buffer.getInt() != 0;
+            int width = 2 * margin + 1;
+            if(buffer.remaining() < 4L * hops * width) {
+                throw new IOException("Truncated spectrum cache: " + file);
+            }
+            //mapping stays valid after the channel is closed
+            FloatBuffer rows = buffer.order(ByteOrder.BIG_ENDIAN).asFloatBuffer();
+            rows.limit(hops * width);
+            return new SpectrumCache(sampleRate, frameSize, hopSize, margin, primaryBand, hops, powerSpectrum,
+                    rows.asReadOnlyBuffer());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Copies spectra to another file that can be mapped with {@link #map(File)}.
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            writeHeader(out, sampleRate, frameSize, hopSize, margin, primaryBand, hops, powerSpectrum);
+            FloatBuffer view = rows.duplicate();
+            view.rewind();
+            ByteBuffer chunk = ByteBuffer.allocate(4 * 4096);
+            FloatBuffer floats = chunk.asFloatBuffer();
+            while(view.hasRemaining()) {
+                int count = Math.min(view.remaining(), floats.capacity());
+                floats.clear();
+                for(int i = 0; i < count; ++i) {
+                    floats.put(view.get());
+                }
+                out.write(chunk.array(), 0, 4 * count);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /** Returns width of a band in Hz. */
+    public float getBandWidth() {
+        return (float) sampleRate / frameSize;
+    }
+
+    /** Returns bands kept on each side of the primary tone. */
+    public int getMargin() {
+        return margin;
+    }
+
+    /** Returns band of the primary tone in the full spectrum, -1 when recording was too short. */
+    public int getPrimaryBand() {
+        return primaryBand;
+    }
+
+    /** Returns number of rows. */
+    public int getHops() {
+        return hops;
+    }
+
+    /** Tells whether rows hold squared magnitudes, compared with squared ratios. */
+    public boolean isPowerSpectrum() {
+        return powerSpectrum;
+    }
+
+    /** Returns number of magnitudes in a row. */
+    public int getRowSize() {
+        return 2 * margin + 1;
+    }
+
+    /**
+     * Returns independent view of the rows, to be read by a single thread.
+     * Row <code>h</code> starts at position <code>h * getRowSize()</code>.
+     */
+    public FloatBuffer rows() {
+        FloatBuffer view = rows.duplicate();
+        view.rewind();
+        return view;
+    }
+}
@@ -0,0 +1,30 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Destination of 16 bit mono PCM samples, like a speaker.
+ */
+public interface AudioSink {
+
+    /** Returns sample rate in Hz. */
+    int getSampleRate();
+
+    /**
+     * Queues samples to be played after the previously written ones. Blocks while the sink's
+     * buffer is full, so a writer is paced by playback.
+     *
+     * @param samples samples to play
+     * @param offset index of first sample
+     * @param length number of samples
+     * @return number of samples written, negative on error
+     */
+    int write(short[] samples, int offset, int length);
+
+    /** Starts playing. */
+    void play();
+
+    /** Pauses playing and discards queued samples, unblocking {@link #write(short[], int, int)}. */
+    void pause();
+
+    /** Releases resources. Sink can't be used afterwards. */
+    void release();
+}
@@ -0,0 +1,39 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Source of 16 bit PCM samples, like a microphone or a recording.
+ */
+public interface AudioSource {
+
+    /** Returns sample rate in Hz. */
+    int getSampleRate();
+
+    /** Returns number of interleaved channels. */
+    int getChannelCount();
+
+    /** Returns preferred number of samples read at once. */
+    int getBufferSize();
+
+    /**
+     * Starts delivering samples.
+     *
+     * @throws IllegalStateException when source can't be started, e.g. microphone is used by another app
+     */
+    void start();
+
+    /**
+     * Reads samples, blocking until they are available.
+     *
+     * @param buffer destination array
+     * @param offset index of first sample in destination
+     * @param length maximal number of samples
+     * @return number of samples read, -1 when there will be no more samples
+     */
+    int read(short[] buffer, int offset, int length);
+
+    /** Stops delivering samples. Unblocks pending {@link #read(short[], int, int)}. */
+    void stop();
+
+    /** Releases resources. Source can't be used afterwards. */
+    void release();
+}
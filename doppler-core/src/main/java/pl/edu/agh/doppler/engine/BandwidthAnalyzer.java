@@ -0,0 +1,663 @@
+package pl.edu.agh.doppler.engine;
+
+import pl.edu.agh.doppler.fft.FixedPointFFT;
+import pl.edu.agh.doppler.fft.FourierTransform;
+import pl.edu.agh.doppler.fft.FourierTransforms;
+import pl.edu.agh.doppler.fft.ShortTimeFourierTransform;
+import pl.edu.agh.doppler.fft.SlidingDFT;
+import pl.edu.agh.doppler.fft.WindowFunction;
+
+/**
+ * Spectrum side of the detection. Takes microphone samples one hop at a time, keeps smoothed
+ * spectrum of the newest frame and measures how far the primary tone spreads to the left
+ * (lower frequencies, moving away) and to the right (higher frequencies, moving towards).
+ * <p>
+ * Several carrier tones can be measured in the same spectrum, see
+ * {@link #optimizeFrequencies(int[], int[])}. With a single carrier it is the primary tone.
+ */
+public class BandwidthAnalyzer {
+
+    /** Maximal bandwidth, in bands, on each side of the primary tone. */
+    public static final int RELEVANT_FREQ_WINDOW = 33;
+
+    /** Maximal bandwidth, in Hz, on each side of the primary tone, default of {@link DetectorConfig}. */
+    static final int RELEVANT_FREQ_SPAN = 355;
+
+    /** Secondary scan looks past the first minimum for "split off" peaks louder than this ratio. */
+    static final double SECOND_PEAK_RATIO = 0.3;
+
+    //for bandwidth positions in array
+    public static final int LEFT_BANDWIDTH = 0;
+    public static final int RIGHT_BANDWIDTH = 1;
+    //bandwidths of the primary scans, before "split off" peaks are added
+    public static final int LEFT_PRIMARY_BANDWIDTH = 2;
+    public static final int RIGHT_PRIMARY_BANDWIDTH = 3;
+    //distance of the interpolated peak from the primary band, in fractional results
+    public static final int PEAK_OFFSET = 2;
+
+    //I want to add smoothing
+    private static final float SMOOTHING_TIME_CONSTANT = 0.5f;
+
+    private final int sampleRate;
+
+    private final WindowFunction windowFunction;
+
+    /** Bands computed on both sides of the carriers, also when tracking them. */
+    private final int margin;
+
+    /** Fourier transform. Only bands between {@link #firstBand} and {@link #lastBand} are read. */
+    private FourierTransform fft;
+
+    /** Short-time transform producing a spectrum every hop. */
+    private final ShortTimeFourierTransform stft;
+
+    /**
+     * Streaming transform tracking bands around {@link #carriers}. Replaces {@link #stft}
+     * when updating a few bands per sample is cheaper than transforming a frame every hop.
+     */
+    private SlidingDFT slidingDft;
+
+    /**
+     * Fixed-point transform of raw samples, replaces {@link #stft} when enabled with
+     * {@link #setFixedPoint(boolean)}. Null when frames are transformed in floats.
+     */
+    private FixedPointFFT fixedPointFft;
+
+    /** Last frame of raw samples, oldest first, kept for {@link #fixedPointFft}. */
+    private short[] rawHistory;
+
+    /** First spectrum band read by the detection. */
+    private int firstBand;
+
+    /** Last spectrum band read by the detection. */
+    private int lastBand;
+
+    /** Bands of the carrier tones, the first one is returned as the primary tone. */
+    private int[] carriers;
+
+    /** Scaled samples of a single hop. */
+    private final float[] hopBuffer;
+
+    /** Smoothed magnitudes, indexed by band. Only bands used for detection are kept up to date. */
+    private final float[] smoothed;
+
+    /** Whether {@link #smoothed} holds squared magnitudes, see {@link #setPowerSpectrum(boolean)}. */
+    private boolean powerSpectrum;
+
+    /** Result of {@link #getBandwidth(double)}. Reused every frame to avoid allocations. */
+    private final int[] bandwidths = new int[4];
+
+    /** Result of {@link #getFractionalBandwidth(int, double, double, int)}. */
+    private final float[] fractionalBandwidths = new float[3];
+
+    /**
+     * Creates analyzer. Detection only reads bands between <code>minFreq</code> and
+     * <code>maxFreq</code> plus {@link #RELEVANT_FREQ_WINDOW} on both sides, so the transform only
+     * has to compute those.
+     *
+     * @param sampleRate sample rate of analyzed samples
+     * @param timeSize frame size, power of two
+     * @param hopSize samples between two frames, from 1 to timeSize
+     * @param windowFunction window applied to frames, may be null
+     * @param minFreq lowest possible frequency of the primary tone
+     * @param maxFreq highest possible frequency of the primary tone
+     */
+    public BandwidthAnalyzer(int sampleRate, int timeSize, int hopSize, WindowFunction windowFunction,
+                             int minFreq, int maxFreq) {
+        this(sampleRate, timeSize, hopSize, windowFunction, minFreq, maxFreq, RELEVANT_FREQ_WINDOW);
+    }
+
+    /**
+     * Creates analyzer computing bands between <code>minFreq</code> and <code>maxFreq</code> plus
+     * <code>margin</code> bands on both sides. Margin limits the widest bandwidth that can be measured.
+     *
+     * @param sampleRate sample rate of analyzed samples
+     * @param timeSize frame size, power of two
+     * @param hopSize samples between two frames, from 1 to timeSize
+     * @param windowFunction window applied to frames, may be null
+     * @param minFreq lowest possible frequency of the primary tone
+     * @param maxFreq highest possible frequency of the primary tone
+     * @param margin bands computed on both sides of the frequency range
+     */
+    public BandwidthAnalyzer(int sampleRate, int timeSize, int hopSize, WindowFunction windowFunction,
+                             int minFreq, int maxFreq, int margin) {
+        this.sampleRate = sampleRate;
+        this.windowFunction = windowFunction;
+        this.margin = margin;
+        firstBand = Math.max(0, Math.round((float) timeSize * minFreq / sampleRate) - margin);
+        lastBand = Math.min(timeSize / 2, Math.round((float) timeSize * maxFreq / sampleRate) + margin);
+        fft = FourierTransforms.forBands(timeSize, sampleRate, firstBand, lastBand);
+        stft = new ShortTimeFourierTransform(fft, windowFunction, hopSize);
+        hopBuffer = new float[hopSize];
+        smoothed = new float[fft.specSize()];
+        carriers = new int[] {fft.freqToIndex((minFreq + maxFreq) / 2f)};
+    }
+
+    /** Returns sample rate of analyzed samples. */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Returns number of samples expected by {@link #process(short[], int)}. */
+    public int getHopSize() {
+        return stft.hopSize();
+    }
+
+    /** Returns frame size. */
+    public int getTimeSize() {
+        return fft.timeSize();
+    }
+
+    /** Returns band of the primary tone. */
+    public int getFrequencyIndex() {
+        return carriers[0];
+    }
+
+    /** Returns frequency of the primary tone band. */
+    public float getFrequency() {
+        return fft.indexToFreq(carriers[0]);
+    }
+
+    /** Returns number of carrier tones. */
+    public int getCarrierCount() {
+        return carriers.length;
+    }
+
+    /** Returns band of given carrier tone. */
+    public int getFrequencyIndex(int carrier) {
+        return carriers[carrier];
+    }
+
+    /** Returns frequency of given carrier tone band. */
+    public float getFrequency(int carrier) {
+        return fft.indexToFreq(carriers[carrier]);
+    }
+
+    /** Returns first band read by the detection. */
+    public int getFirstBand() {
+        return firstBand;
+    }
+
+    /** Returns last band read by the detection. */
+    public int getLastBand() {
+        return lastBand;
+    }
+
+    /**
+     * Returns smoothed magnitudes indexed by band, squared in power mode. Only bands from
+     * {@link #getFirstBand()} to {@link #getLastBand()} are valid. Overwritten by next hop.
+     */
+    public float[] getSpectrum() {
+        return smoothed;
+    }
+
+    /**
+     * Returns transform holding the spectrum of the newest frame. With magnitudes its bands are
+     * smoothed like {@link #getSpectrum()}. In power mode they hold the power of the newest frame
+     * without smoothing, writing smoothed power back would take the square root power mode saves.
+     */
+    public FourierTransform getTransform() {
+        return fft;
+    }
+
+    /**
+     * Switches between transforming frames in floats and in fixed point. The fixed-point
+     * transform takes raw 16-bit samples, so samples are not converted to floats at all, which
+     * is cheaper on devices with a slow FPU. Both give the same bandwidths, up to bands at the
+     * edge of {@link #getBandwidth(double)} thresholds. Call before the first hop.
+     *
+     * @param enabled true to transform in fixed point
+     */
+    public void setFixedPoint(boolean enabled) {
+        if(slidingDft != null) {
+            //bands are tracked by sliding transform already
+            return;
+        }
+        if(enabled) {
+            int timeSize = fft.timeSize();
+            fixedPointFft = new FixedPointFFT(timeSize, sampleRate, firstBand, lastBand, windowFunction);
+            fixedPointFft.setPowerSpectrum(powerSpectrum);
+            rawHistory = new short[timeSize];
+            fft = fixedPointFft;
+        } else {
+            fixedPointFft = null;
+            rawHistory = null;
+            fft = stft.transform();
+        }
+    }
+
+    /**
+     * Switches between spectra of magnitudes and of squared magnitudes (power). Power needs no
+     * square root per band. Bandwidth thresholds are squared accordingly, so
+     * {@link #getBandwidth(double)} takes the same ratios in both modes.
+     * <p>
+     * Power mode is an approximation: power is smoothed over hops instead of magnitude, and the
+     * average of squares is not the square of the average, so bands near a threshold and the
+     * gestures they make may differ from magnitude mode. Bands of {@link #getTransform()} aren't
+     * smoothed in power mode. Call before the first hop.
+     *
+     * @param power true for squared magnitudes
+     */
+    public void setPowerSpectrum(boolean power) {
+        powerSpectrum = power;
+        fft.setPowerSpectrum(power);
+        stft.transform().setPowerSpectrum(power);
+    }
+
+    /** Tells whether spectrum holds squared magnitudes, see {@link #setPowerSpectrum(boolean)}. */
+    public boolean isPowerSpectrum() {
+        return powerSpectrum;
+    }
+
+    /** Tells whether frames are transformed in fixed point, see {@link #setFixedPoint(boolean)}. */
+    public boolean isFixedPoint() {
+        return fixedPointFft != null;
+    }
+
+    /** Tells whether only bands around the primary tone are tracked with a sliding DFT. */
+    public boolean isTracking() {
+        return slidingDft != null;
+    }
+
+    /**
+     * Takes next hop of samples and updates the spectrum of the newest frame.
+     * Frames are windowed with {@link #windowFunction}.
+     * On the end smooths out frequencies.
+     *
+     * @param samples buffer with {@link #getHopSize()} samples after offset
+     * @param offset index of first sample
+     * @see <a href="http://dsp.stackexchange.com/questions/11312/why-should-one-use-windowing-functions-for-fft">
+     *     Why should we use windowing function for FFT</a>
+     */
+    public void process(short[] samples, int offset) {
+        process(samples, offset, 1);
+    }
+
+    /**
+     * Takes next hop of one channel of interleaved samples and updates the spectrum of the newest frame.
+     * Channel is picked while samples are scaled, without copying it out first.
+     *
+     * @param samples buffer with {@link #getHopSize()} frames after offset
+     * @param offset index of first sample of the channel
+     * @param stride number of interleaved channels
+     */
+    public void process(short[] samples, int offset, int stride) {
+        int hop = hopBuffer.length;
+        if(fixedPointFft != null) {
+            int timeSize = rawHistory.length;
+            System.arraycopy(rawHistory, hop, rawHistory, 0, timeSize - hop);
+            for(int i = 0; i < hop; ++i) {
+                rawHistory[timeSize - hop + i] = samples[offset + i * stride];
+            }
+            fixedPointFft.forward(rawHistory, 0, 1);
+            smoothOutFrequencies();
+            return;
+        }
+
+        for(int i = 0; i < hop; ++i) {
+            hopBuffer[i] = (float) samples[offset + i * stride] / Short.MAX_VALUE;
+        }
+
+        if(slidingDft != null) {
+            //window is applied by sliding transform
+            slidingDft.push(hopBuffer, 0, hop);
+        } else {
+            stft.push(hopBuffer, 0);
+        }
+
+        //apply smoothing
+        smoothOutFrequencies();
+    }
+
+    /**
+     * Takes spectrum of the next frame computed elsewhere, e.g. in parallel, and smooths it like
+     * {@link #process(short[], int)} would. Frame has to be windowed with the same window.
+     *
+     * @param magnitudes magnitudes of bands from {@link #getFirstBand()} to {@link #getLastBand()}
+     * @param offset index of the magnitude of first band
+     */
+    public void processSpectrum(float[] magnitudes, int offset) {
+        for(int i = firstBand; i <= lastBand; ++i) {
+            smooth(i, magnitudes[offset + i - firstBand]);
+        }
+    }
+
+    /**
+     * Smooths out freq. Only bands used for detection are smoothed.
+     */
+    private void smoothOutFrequencies() {
+        for(int i = firstBand; i <= lastBand; ++i) {
+            smooth(i, fft.getBand(i));
+        }
+    }
+
+    /** Mixes new magnitude of a band with its magnitude in the previous hop. */
+    private void smooth(int band, float magnitude) {
+        float smoothedOutMag = SMOOTHING_TIME_CONSTANT * magnitude + (1 - SMOOTHING_TIME_CONSTANT) * smoothed[band];
+        smoothed[band] = smoothedOutMag;
+        if(!powerSpectrum) {
+            //setting power would need a square root for real and imaginary parts, see getTransform()
+            fft.setBand(band, smoothedOutMag);
+        }
+    }
+
+    /**
+     * Searches current spectrum for frequency with maximum amplitude and makes it the primary tone.
+     *
+     * @param minFreq minimal frequency
+     * @param maxFreq maximum frequency
+     * @return frequency of the primary tone
+     */
+    public float optimizeFrequency(int minFreq, int maxFreq) {
+        optimizeFrequencies(new int[] {minFreq}, new int[] {maxFreq});
+        return fft.indexToFreq(carriers[0]);
+    }
+
+    /**
+     * Searches current spectrum for carrier tones, the loudest band of every frequency range
+     * becomes a carrier.
+     *
+     * @param minFreqs minimal frequency of every carrier
+     * @param maxFreqs maximal frequency of every carrier
+     */
+    public void optimizeFrequencies(int[] minFreqs, int[] maxFreqs) {
+        if(minFreqs.length == 0 || minFreqs.length != maxFreqs.length) {
+            throw new IllegalArgumentException("Every carrier needs minimal and maximal frequency");
+        }
+        int[] found = new int[minFreqs.length];
+        for(int c = 0; c < found.length; ++c) {
+            //only analyzed bands are smoothed
+            int minInd = Math.max(firstBand, fft.freqToIndex(minFreqs[c]));
+            int maxInd = Math.min(lastBand, fft.freqToIndex(maxFreqs[c]));
+
+            //previous carrier wins ties
+            int primaryInd = c < carriers.length ? carriers[c] : minInd;
+            for(int i = minInd; i <= maxInd; ++i) {
+                if(smoothed[i] > smoothed[primaryInd]) {
+                    primaryInd = i;
+                }
+            }
+            found[c] = primaryInd;
+        }
+        carriers = found;
+    }
+
+    /**
+     * Moves given carrier to another band, e.g. when the tone drifted. Bandwidths around it are
+     * measured from the next call.
+     *
+     * @param carrier index of the carrier
+     * @param band new band of the carrier, between {@link #getFirstBand()} and {@link #getLastBand()}
+     */
+    public void setFrequencyIndex(int carrier, int band) {
+        if(band < firstBand || band > lastBand) {
+            throw new IllegalArgumentException("Band " + band + " isn't analyzed");
+        }
+        carriers[carrier] = band;
+    }
+
+    /** Returns width of a band in Hz. */
+    public float getBandWidth() {
+        return fft.getBandWidth();
+    }
+
+    /**
+     * Switches to tracking only bands around {@link #carriers} with a sliding DFT, when that
+     * is cheaper than transforming a frame every hop. Needs a cosine sum window.
+     * The sliding transform is filled with the samples of the last frame.
+     *
+     * @return true if switched
+     */
+    public boolean startTracking() {
+        int timeSize = fft.timeSize();
+        int lowest = carriers[0];
+        int highest = carriers[0];
+        for(int carrier : carriers) {
+            lowest = Math.min(lowest, carrier);
+            highest = Math.max(highest, carrier);
+        }
+        int trackedFirst = Math.max(0, lowest - margin);
+        int trackedLast = Math.min(fft.specSize() - 1, highest + margin);
+        if(!FourierTransforms.preferSlidingDft(timeSize, stft.hopSize(), trackedLast - trackedFirst + 1)) {
+            return false;
+        }
+        if(windowFunction != null && windowFunction.cosineTerms() == null) {
+            return false;
+        }
+
+        firstBand = trackedFirst;
+        lastBand = trackedLast;
+        slidingDft = new SlidingDFT(timeSize, sampleRate, firstBand, lastBand, windowFunction);
+        slidingDft.setPowerSpectrum(powerSpectrum);
+
+        float[] samples = new float[timeSize];
+        if(fixedPointFft != null) {
+            for(int i = 0; i < timeSize; ++i) {
+                samples[i] = (float) rawHistory[i] / Short.MAX_VALUE;
+            }
+            fixedPointFft = null;
+            rawHistory = null;
+        } else {
+            stft.copyHistory(samples);
+        }
+        slidingDft.push(samples, 0, timeSize);
+
+        fft = slidingDft;
+        return true;
+    }
+
+    /**
+     * Computes bandwidths on both sides of the primary tone in the current spectrum.
+     *
+     * @param maxVolRatio bands quieter than this fraction of the primary tone end the bandwidth
+     * @return {@link #bandwidths}, overwritten by next call
+     */
+    public int[] getBandwidth(double maxVolRatio) {
+        return getBandwidth(maxVolRatio, SECOND_PEAK_RATIO, RELEVANT_FREQ_WINDOW);
+    }
+
+    /**
+     * Computes bandwidths on both sides of the primary tone in the current spectrum.
+     *
+     * @param maxVolRatio bands quieter than this fraction of the primary tone end the bandwidth
+     * @param secondPeakRatio bands louder than this fraction past the first minimum are "split off" peaks
+     * @param window maximal bandwidth, limited to bands computed by this analyzer
+     * @return {@link #bandwidths}, overwritten by next call
+     */
+    public int[] getBandwidth(double maxVolRatio, double secondPeakRatio, int window) {
+        return getBandwidth(0, maxVolRatio, secondPeakRatio, window);
+    }
+
+    /**
+     * Computes bandwidths on both sides of given carrier tone in the current spectrum. Bandwidth
+     * never reaches half way to another carrier.
+     *
+     * @param carrier index of the carrier
+     * @param maxVolRatio bands quieter than this fraction of the carrier end the bandwidth
+     * @param secondPeakRatio bands louder than this fraction past the first minimum are "split off" peaks
+     * @param window maximal bandwidth, limited to bands computed by this analyzer
+     * @return {@link #bandwidths}, overwritten by next call
+     */
+    public int[] getBandwidth(int carrier, double maxVolRatio, double secondPeakRatio, int window) {
+        int band = carriers[carrier];
+        window = Math.min(window, Math.min(band - firstBand, lastBand - band));
+        for(int other : carriers) {
+            if(other != band) {
+                window = Math.min(window, Math.abs(other - band) / 2);
+            }
+        }
+        if(powerSpectrum) {
+            maxVolRatio *= maxVolRatio;
+            secondPeakRatio *= secondPeakRatio;
+        }
+        scanBandwidth(smoothed, band, maxVolRatio, secondPeakRatio, Math.max(1, window), bandwidths);
+        return bandwidths;
+    }
+
+    /**
+     * Computes bandwidths on both sides of given carrier tone in the current spectrum with sub-band
+     * precision, see {@link #interpolateBandwidth(float[], int, double, int[], float[])}. Bandwidths
+     * in whole bands are left in the array returned by {@link #getBandwidth(double)}.
+     *
+     * @param carrier index of the carrier
+     * @param maxVolRatio bands quieter than this fraction of the carrier end the bandwidth
+     * @param secondPeakRatio bands louder than this fraction past the first minimum are "split off" peaks
+     * @param window maximal bandwidth, limited to bands computed by this analyzer
+     * @return {@link #fractionalBandwidths}, overwritten by next call
+     */
+    public float[] getFractionalBandwidth(int carrier, double maxVolRatio, double secondPeakRatio, int window) {
+        getBandwidth(carrier, maxVolRatio, secondPeakRatio, window);
+        if(powerSpectrum) {
+            maxVolRatio *= maxVolRatio;
+        }
+        interpolateBandwidth(smoothed, carriers[carrier], maxVolRatio, bandwidths, fractionalBandwidths);
+        return fractionalBandwidths;
+    }
+
+    /**
+     * Computes bandwidths on both sides of the primary tone. Bands from <code>primaryTone - window</code>
+     * to <code>primaryTone + window</code> must be in the spectrum.
+     * <p>
+     * Both sides are scanned in one pass outwards from the primary tone. Bands are compared with
+     * thresholds scaled by the primary tone once, instead of dividing every band by it. Results are
+     * the ones of dividing, except for a band within rounding error of a threshold. With a silent
+     * primary tone they are the same too: a division gives infinity for a louder band and NaN for a
+     * silent one, which compare like the band compares with a zero threshold.
+     *
+     * @param spectrum magnitudes indexed by band
+     * @param primaryTone band of the primary tone
+     * @param maxVolRatio bands quieter than this fraction of the primary tone end the bandwidth
+     * @param secondPeakRatio bands louder than this fraction past the first minimum are "split off" peaks
+     * @param window maximal bandwidth on each side
+     * @param result array receiving bandwidths at {@link #LEFT_BANDWIDTH} and {@link #RIGHT_BANDWIDTH},
+     *               and bandwidths of the primary scans at {@link #LEFT_PRIMARY_BANDWIDTH} and
+     *               {@link #RIGHT_PRIMARY_BANDWIDTH} if it is long enough
+     */
+    public static void scanBandwidth(float[] spectrum, int primaryTone, double maxVolRatio,
+                                     double secondPeakRatio, int window, int[] result) {
+        double primaryVolume = spectrum[primaryTone];
+        double maxVolume = maxVolRatio * primaryVolume;
+        double secondPeakVolume = secondPeakRatio * primaryVolume;
+
+        //primary scan ends at the first band not louder than maxVolume.
+        //secondary bandwidths are for looking past the first minimum to search for "split off" peaks,
+        // as per the paper. they end at the first band quieter than maxVolume after a band louder than
+        // secondPeakVolume. on the left the secondary scan starts after the primary one, on the right
+        // it has always started next to the primary tone, so it usually ends where the primary one does.
+        int leftBandwidth = 0;
+        int secondaryLeftBandwidth = window;
+        boolean leftSecondPeak = false;
+        boolean leftDone = false;
+
+        int rightBandwidth = 0;
+        int secondaryRightBandwidth = window;
+        boolean rightSecondPeak = false;
+        boolean rightDone = false;
+
+        for(int k = 1; k <= window && !(leftDone && rightDone); ++k) {
+            if(!leftDone) {
+                double volume = spectrum[primaryTone - k];
+                if(leftBandwidth == 0) {
+                    if(!(volume > maxVolume) || k == window) {
+                        leftBandwidth = k;
+                    }
+                } else {
+                    if(volume > secondPeakVolume) {
+                        leftSecondPeak = true;
+                    }
+                    if(leftSecondPeak && volume < maxVolume) {
+                        secondaryLeftBandwidth = k;
+                        leftDone = true;
+                    }
+                }
+            }
+
+            if(!rightDone) {
+                double volume = spectrum[primaryTone + k];
+                if(rightBandwidth == 0 && (!(volume > maxVolume) || k == window)) {
+                    rightBandwidth = k;
+                }
+                if(volume > secondPeakVolume) {
+                    rightSecondPeak = true;
+                }
+                if(rightSecondPeak && volume < maxVolume) {
+                    //a band quieter than maxVolume has also ended the primary scan
+                    secondaryRightBandwidth = k;
+                    rightDone = true;
+                }
+            }
+        }
+
+        if(result.length > RIGHT_PRIMARY_BANDWIDTH) {
+            result[LEFT_PRIMARY_BANDWIDTH] = leftBandwidth;
+            result[RIGHT_PRIMARY_BANDWIDTH] = rightBandwidth;
+        }
+        result[LEFT_BANDWIDTH] = leftSecondPeak ? secondaryLeftBandwidth : leftBandwidth;
+        result[RIGHT_BANDWIDTH] = rightSecondPeak ? secondaryRightBandwidth : rightBandwidth;
+    }
+
+    /**
+     * Refines bandwidths found by {@link #scanBandwidth(float[], int, double, double, int, int[])} to
+     * fractions of a band. The peak of the primary tone is placed by fitting a Gaussian, a parabola of
+     * logarithms, to the primary band and its neighbours. The edge on each side is placed where the
+     * spectrum, linear between the last band of the bandwidth and the one before it, crosses the
+     * threshold. Bandwidths are measured from the peak, so a tone between two bands doesn't widen one
+     * side by a band and narrow the other.
+     * <p>
+     * Bands must be positive around the primary tone, otherwise the peak stays on the primary band.
+     *
+     * @param spectrum magnitudes indexed by band, the one passed to the scan
+     * @param primaryTone band of the primary tone
+     * @param maxVolRatio bands quieter than this fraction of the primary tone end the bandwidth
+     * @param bandwidths bandwidths computed by the scan
+     * @param result array receiving bandwidths at {@link #LEFT_BANDWIDTH} and {@link #RIGHT_BANDWIDTH}
+     *               and distance of the peak from the primary band at {@link #PEAK_OFFSET}, all in bands
+     */
+    public static void interpolateBandwidth(float[] spectrum, int primaryTone, double maxVolRatio,
+                                            int[] bandwidths, float[] result) {
+        float offset = interpolatePeak(spectrum, primaryTone);
+        double threshold = maxVolRatio * spectrum[primaryTone];
+        float left = edge(spectrum, primaryTone, -1, bandwidths[LEFT_BANDWIDTH], threshold);
+        float right = edge(spectrum, primaryTone, 1, bandwidths[RIGHT_BANDWIDTH], threshold);
+        result[LEFT_BANDWIDTH] = left + offset;
+        result[RIGHT_BANDWIDTH] = right - offset;
+        result[PEAK_OFFSET] = offset;
+    }
+
+    /**
+     * Returns distance of a tone from the center of given band, in bands, by fitting a Gaussian to
+     * the band and its neighbours. Same for magnitudes and power. Between -0.5 and 0.5, 0 when bands
+     * around aren't positive.
+     *
+     * @param spectrum magnitudes or power indexed by band
+     * @param band band of the tone, not first or last of the spectrum
+     */
+    public static float interpolatePeak(float[] spectrum, int band) {
+        float below = spectrum[band - 1];
+        float peak = spectrum[band];
+        float above = spectrum[band + 1];
+        if(below > 0 && peak > 0 && above > 0) {
+            double logBelow = Math.log(below);
+            double logPeak = Math.log(peak);
+            double logAbove = Math.log(above);
+            double curvature = logBelow - 2 * logPeak + logAbove;
+            if(curvature < 0) {
+                //within half a band unless the band isn't the loudest
+                return (float) Math.max(-0.5, Math.min(0.5, 0.5 * (logBelow - logAbove) / curvature));
+            }
+        }
+        return 0.0f;
+    }
+
+    /** Returns distance from the primary band at which the spectrum drops to the threshold. */
+    private static float edge(float[] spectrum, int primaryTone, int direction, int bandwidth,
+                              double threshold) {
+        float inner = spectrum[primaryTone + direction * (bandwidth - 1)];
+        float outer = spectrum[primaryTone + direction * bandwidth];
+        if(inner > threshold && outer <= threshold) {
+            return (float) (bandwidth - 1 + (inner - threshold) / (inner - outer));
+        }
+        //the bandwidth was cut by the window
+        return bandwidth;
+    }
+}
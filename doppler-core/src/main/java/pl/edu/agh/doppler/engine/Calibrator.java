@@ -0,0 +1,103 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Adjusts volume ratio used for bandwidth detection. When bandwidths change direction too often
+ * the ratio goes up, when they don't change at all it goes down.
+ */
+public class Calibrator {
+
+    /** Time after which the volume ratio is adjusted, in milliseconds. */
+    final static int CYCLE_DURATION = 1858;
+
+    final static int UP_THRESHOLD = 5;
+
+    final static int DOWN_THRESHOLD = 0;
+
+    final static double UP_AMOUNT = 1.1;
+
+    final static double DOWN_AMOUNT = 0.9;
+
+    final static double MAX = 0.95;
+
+    final static double MIN = 0.0001;
+
+    private final int cycleSize;
+
+    private final int upThreshold;
+
+    private final int downThreshold;
+
+    private final double upAmount;
+
+    private final double downAmount;
+
+    private final double max;
+
+    private final double min;
+
+    private int i = 0;
+
+    /** Direction in which move was detected last time. Used to detect direction changes. */
+    private int previousDirection = 0;
+
+    /** Counter for direction changes. */
+    private int directionChanges = 0;
+
+    /**
+     * Creates calibrator with constants taken from given configuration.
+     *
+     * @param config detection constants
+     * @param sampleRate sample rate in Hz
+     * @param hopSize samples between two calibrations
+     */
+    public Calibrator(DetectorConfig config, int sampleRate, int hopSize) {
+        cycleSize = config.getCalibrationHops(sampleRate, hopSize);
+        upThreshold = config.getUpThreshold();
+        downThreshold = config.getDownThreshold();
+        upAmount = config.getUpAmount();
+        downAmount = config.getDownAmount();
+        max = config.getMaxVolRatioLimit();
+        min = config.getMinVolRatioLimit();
+    }
+
+    /**
+     * Calibrates volume ratio.
+     *
+     * @param maxVolRatio actual volume ratio
+     * @param leftBandwidth left bandwidth value
+     * @param rightBandwidth right bandwidth value
+     *
+     * @return new maximum volume ration
+     */
+    public double calibrate(double maxVolRatio, final int leftBandwidth, final int rightBandwidth) {
+        //calculate difference between bandwidths
+        int difference = leftBandwidth - rightBandwidth;
+        //calculate direction
+        int direction = (int) Math.signum(difference);
+
+        //if direction change occurred take appropriate steps
+        if(previousDirection != direction) {
+            directionChanges++;
+            previousDirection = direction;
+        }
+
+        //if cycle finished
+        i = (i + 1) % cycleSize;
+        if(i == 0) {
+            if(directionChanges >= upThreshold) {
+                maxVolRatio *= upAmount;
+            } else if (directionChanges == downThreshold) {
+                maxVolRatio *= downAmount;
+            }
+
+            //apply boundaries
+            maxVolRatio = maxVolRatio > max ? max : maxVolRatio;
+            maxVolRatio = maxVolRatio < min ? min : maxVolRatio;
+
+            //reset direction changes counter
+            directionChanges = 0;
+        }
+
+        return maxVolRatio;
+    }
+}
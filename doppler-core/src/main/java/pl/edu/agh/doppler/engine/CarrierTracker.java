@@ -0,0 +1,148 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Arrays;
+
+/**
+ * Keeps carrier tones centered in their bands over long sessions. Carriers are found once, when
+ * {@link GestureEngine} gets ready, but the tone seen by the microphone drifts, e.g. with the clocks
+ * of the speaker and the microphone, and a tone between two bands leaks unevenly to both sides.
+ * <p>
+ * Every hop without movement the position of one carrier is refined from the spectrum already
+ * computed for the detection, see {@link BandwidthAnalyzer#interpolatePeak(float[], int)}, so
+ * carriers are evaluated in turns and no transform is added. Positions are averaged over many hops.
+ * When the average moves more than {@link #HYSTERESIS} bands from the center of the carrier band,
+ * the carrier follows to the nearest band and its played frequency is corrected to put the tone
+ * back in the center, see {@link #update()}.
+ */
+public class CarrierTracker {
+
+    /** Distance from the band center, in bands, above which a carrier is retuned. */
+    static final float HYSTERESIS = 0.25f;
+
+    /** Weight of a new position in the average. */
+    static final float AVERAGING = 1.0f / 16;
+
+    /** Evaluations of a carrier skipped after retuning it, until the new tone reaches the spectrum. */
+    static final int COOLDOWN = 8;
+
+    /** Engines of all channels, positions are measured in the first one. */
+    private final GestureEngine[] engines;
+
+    /** Played frequencies of carriers. */
+    private final float[] frequencies;
+
+    /** Bandwidth, in bands, above which a hop has movement and isn't used. */
+    private final int movementBandwidth;
+
+    /** Average position of every carrier in the spectrum, in bands, NaN until measured. */
+    private final float[] positions;
+
+    /** Evaluations left to skip for every carrier. */
+    private final int[] cooldowns;
+
+    /** Carrier evaluated in the next hop. */
+    private int next;
+
+    /**
+     * @param frequencies played frequencies of carriers, in order of carriers of the engines
+     * @param config detection constants of the engines
+     * @param engines engine of every channel hearing the carriers
+     */
+    public CarrierTracker(float[] frequencies, DetectorConfig config, GestureEngine... engines) {
+        if(engines.length == 0) {
+            throw new IllegalArgumentException("At least one engine is needed");
+        }
+        if(frequencies.length != engines[0].getCarrierCount()) {
+            throw new IllegalArgumentException("Every carrier needs a played frequency");
+        }
+        this.engines = engines.clone();
+        this.frequencies = frequencies.clone();
+        movementBandwidth = config.getMovementBands(engines[0].getAnalyzer().getBandWidth());
+        positions = new float[frequencies.length];
+        cooldowns = new int[frequencies.length];
+        Arrays.fill(positions, Float.NaN);
+    }
+
+    /** Returns current played frequencies of carriers. */
+    public float[] getFrequencies() {
+        return frequencies.clone();
+    }
+
+    /**
+     * Copies current played frequencies of carriers, without allocating.
+     *
+     * @param out array receiving the frequency of every carrier
+     */
+    public void getFrequencies(float[] out) {
+        System.arraycopy(frequencies, 0, out, 0, frequencies.length);
+    }
+
+    /** Returns played frequency of given carrier. */
+    public float getFrequency(int carrier) {
+        return frequencies[carrier];
+    }
+
+    /**
+     * Evaluates next carrier in the spectrum of the last processed hop. Call after every hop.
+     *
+     * @return true if a played frequency changed and the tone should be retuned
+     */
+    public boolean update() {
+        GestureEngine engine = engines[0];
+        if(!engine.isReady()) {
+            return false;
+        }
+        int carrier = next;
+        next = (next + 1) % frequencies.length;
+
+        //reflections of a moving hand move the peak too
+        if(engine.getLeftBandwidth(carrier) > movementBandwidth
+                || engine.getRightBandwidth(carrier) > movementBandwidth) {
+            return false;
+        }
+
+        BandwidthAnalyzer analyzer = engine.getAnalyzer();
+        int band = analyzer.getFrequencyIndex(carrier);
+        if(cooldowns[carrier] > 0) {
+            cooldowns[carrier]--;
+            return false;
+        }
+        if(band - 2 < analyzer.getFirstBand() || band + 2 > analyzer.getLastBand()) {
+            return false;
+        }
+
+        //fit around the loudest of the carrier band and its neighbours
+        float[] spectrum = analyzer.getSpectrum();
+        int peak = band;
+        if(spectrum[band - 1] > spectrum[peak]) {
+            peak = band - 1;
+        }
+        if(spectrum[band + 1] > spectrum[peak]) {
+            peak = band + 1;
+        }
+        float position = peak + BandwidthAnalyzer.interpolatePeak(spectrum, peak);
+        if(Float.isNaN(positions[carrier])) {
+            //the average starts at the first position, a lagging start would undo only a part of the drift
+            positions[carrier] = position;
+        } else {
+            positions[carrier] += AVERAGING * (position - positions[carrier]);
+        }
+
+        float drift = positions[carrier] - band;
+        if(Math.abs(drift) <= HYSTERESIS) {
+            return false;
+        }
+
+        //follow the tone to its band, then move the tone to the center of that band
+        int moved = Math.round(positions[carrier]);
+        if(moved != band) {
+            for(GestureEngine channel : engines) {
+                channel.getAnalyzer().setFrequencyIndex(carrier, moved);
+            }
+        }
+        frequencies[carrier] -= (positions[carrier] - moved) * analyzer.getBandWidth();
+        positions[carrier] = Float.NaN;
+        cooldowns[carrier] = COOLDOWN;
+        return true;
+    }
+}
@@ -0,0 +1,235 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Tunable constants of the detection: bandwidth scan, gesture window and calibration.
+ * Defaults are the values used on the device. Read when {@link GestureEngine},
+ * {@link GestureDetector} or {@link Calibrator} is created, later changes don't affect them.
+ * <p>
+ * Durations are in milliseconds and frequency spans in Hz, so they mean the same with every
+ * {@link EngineProfile}. They are converted to hops and bands of the engine when it is created.
+ * Defaults are the baseline values, chosen for non-overlapping 4096 sample frames at 44.1kHz,
+ * where they are whole numbers of hops and bands.
+ */
+public class DetectorConfig {
+
+    private double maxVolRatio = GestureEngine.MAX_VOL_RATIO_DEFAULT;
+
+    private double secondPeakRatio = BandwidthAnalyzer.SECOND_PEAK_RATIO;
+
+    private int relevantFreqWindow = BandwidthAnalyzer.RELEVANT_FREQ_SPAN;
+
+    private int gestureWindow = GestureDetector.GESTURE_WINDOW;
+
+    private int movementBandwidth = GestureDetector.MOVEMENT_BANDWIDTH;
+
+    private int calibrationCycle = Calibrator.CYCLE_DURATION;
+
+    private int upThreshold = Calibrator.UP_THRESHOLD;
+
+    private int downThreshold = Calibrator.DOWN_THRESHOLD;
+
+    private double upAmount = Calibrator.UP_AMOUNT;
+
+    private double downAmount = Calibrator.DOWN_AMOUNT;
+
+    private double maxVolRatioLimit = Calibrator.MAX;
+
+    private double minVolRatioLimit = Calibrator.MIN;
+
+    /** Creates default configuration. */
+    public DetectorConfig() {
+    }
+
+    /** Creates copy of given configuration. */
+    public DetectorConfig(DetectorConfig other) {
+        maxVolRatio = other.maxVolRatio;
+        secondPeakRatio = other.secondPeakRatio;
+        relevantFreqWindow = other.relevantFreqWindow;
+        gestureWindow = other.gestureWindow;
+        movementBandwidth = other.movementBandwidth;
+        calibrationCycle = other.calibrationCycle;
+        upThreshold = other.upThreshold;
+        downThreshold = other.downThreshold;
+        upAmount = other.upAmount;
+        downAmount = other.downAmount;
+        maxVolRatioLimit = other.maxVolRatioLimit;
+        minVolRatioLimit = other.minVolRatioLimit;
+    }
+
+    /** Returns initial ratio of the primary tone volume below which bands end the bandwidth. */
+    public double getMaxVolRatio() {
+        return maxVolRatio;
+    }
+
+    public void setMaxVolRatio(double maxVolRatio) {
+        this.maxVolRatio = maxVolRatio;
+    }
+
+    /** Returns ratio above which a band past the first minimum counts as a "split off" peak. */
+    public double getSecondPeakRatio() {
+        return secondPeakRatio;
+    }
+
+    public void setSecondPeakRatio(double secondPeakRatio) {
+        this.secondPeakRatio = secondPeakRatio;
+    }
+
+    /** Returns maximal bandwidth, in Hz, on each side of the primary tone. */
+    public int getRelevantFreqWindow() {
+        return relevantFreqWindow;
+    }
+
+    /**
+     * Returns {@link #getRelevantFreqWindow()} in bands, at least one.
+     *
+     * @param bandWidth width of a band in Hz
+     */
+    public int getRelevantFreqBands(float bandWidth) {
+        return Math.max(1, toBands(relevantFreqWindow, bandWidth));
+    }
+
+    public void setRelevantFreqWindow(int relevantFreqWindow) {
+        if(relevantFreqWindow < 1) {
+            throw new IllegalArgumentException("Relevant frequency window must be positive");
+        }
+        this.relevantFreqWindow = relevantFreqWindow;
+    }
+
+    /** Returns time scanned after a direction change before a gesture is reported, in milliseconds. */
+    public int getGestureWindow() {
+        return gestureWindow;
+    }
+
+    public void setGestureWindow(int gestureWindow) {
+        if(gestureWindow < 1) {
+            throw new IllegalArgumentException("Gesture window must be positive");
+        }
+        this.gestureWindow = gestureWindow;
+    }
+
+    /**
+     * Returns {@link #getGestureWindow()} in hops, at least one.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param hopSize samples between two bandwidth evaluations
+     */
+    public int getGestureHops(int sampleRate, int hopSize) {
+        return toHops(gestureWindow, sampleRate, hopSize);
+    }
+
+    /** Returns bandwidth above which a frame counts as movement, in Hz. */
+    public int getMovementBandwidth() {
+        return movementBandwidth;
+    }
+
+    /**
+     * Returns {@link #getMovementBandwidth()} in bands.
+     *
+     * @param bandWidth width of a band in Hz
+     */
+    public int getMovementBands(float bandWidth) {
+        return toBands(movementBandwidth, bandWidth);
+    }
+
+    public void setMovementBandwidth(int movementBandwidth) {
+        this.movementBandwidth = movementBandwidth;
+    }
+
+    /** Returns time after which the calibrator adjusts the volume ratio, in milliseconds. */
+    public int getCalibrationCycle() {
+        return calibrationCycle;
+    }
+
+    /**
+     * Returns {@link #getCalibrationCycle()} in hops, at least one.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param hopSize samples between two bandwidth evaluations
+     */
+    public int getCalibrationHops(int sampleRate, int hopSize) {
+        return toHops(calibrationCycle, sampleRate, hopSize);
+    }
+
+    public void setCalibrationCycle(int calibrationCycle) {
+        if(calibrationCycle < 1) {
+            throw new IllegalArgumentException("Calibration cycle must be positive");
+        }
+        this.calibrationCycle = calibrationCycle;
+    }
+
+    /** Returns direction changes per cycle from which the volume ratio goes up. */
+    public int getUpThreshold() {
+        return upThreshold;
+    }
+
+    public void setUpThreshold(int upThreshold) {
+        this.upThreshold = upThreshold;
+    }
+
+    /** Returns direction changes per cycle at which the volume ratio goes down. */
+    public int getDownThreshold() {
+        return downThreshold;
+    }
+
+    public void setDownThreshold(int downThreshold) {
+        this.downThreshold = downThreshold;
+    }
+
+    public double getUpAmount() {
+        return upAmount;
+    }
+
+    public void setUpAmount(double upAmount) {
+        this.upAmount = upAmount;
+    }
+
+    public double getDownAmount() {
+        return downAmount;
+    }
+
+    public void setDownAmount(double downAmount) {
+        this.downAmount = downAmount;
+    }
+
+    /** Returns maximal volume ratio set by calibration. */
+    public double getMaxVolRatioLimit() {
+        return maxVolRatioLimit;
+    }
+
+    public void setMaxVolRatioLimit(double maxVolRatioLimit) {
+        this.maxVolRatioLimit = maxVolRatioLimit;
+    }
+
+    /** Returns minimal volume ratio set by calibration. */
+    public double getMinVolRatioLimit() {
+        return minVolRatioLimit;
+    }
+
+    public void setMinVolRatioLimit(double minVolRatioLimit) {
+        this.minVolRatioLimit = minVolRatioLimit;
+    }
+
+    private static int toBands(int frequency, float bandWidth) {
+        return Math.round(frequency / bandWidth);
+    }
+
+    private static int toHops(int millis, int sampleRate, int hopSize) {
+        return Math.max(1, Math.round((float) millis * sampleRate / (1000f * hopSize)));
+    }
+
+    @Override
+    public String toString() {
+        return "maxVolRatio=" + maxVolRatio
+                + " secondPeakRatio=" + secondPeakRatio
+                + " relevantFreqWindow=" + relevantFreqWindow
+                + " gestureWindow=" + gestureWindow
+                + " movementBandwidth=" + movementBandwidth
+                + " calibrationCycle=" + calibrationCycle
+                + " upThreshold=" + upThreshold
+                + " downThreshold=" + downThreshold
+                + " upAmount=" + upAmount
+                + " downAmount=" + downAmount
+                + " maxVolRatioLimit=" + maxVolRatioLimit
+                + " minVolRatioLimit=" + minVolRatioLimit;
+    }
+}
@@ -0,0 +1,277 @@
+package pl.edu.agh.doppler.engine;
+
+import pl.edu.agh.doppler.fft.HannWindow;
+import pl.edu.agh.doppler.fft.WindowFunction;
+
+/**
+ * Settings of the detection pipeline and the only place building it, so gestures detected offline
+ * over recordings are the ones the device would detect. Defaults are the device defaults: frames of
+ * {@link EngineProfile#HIGH_RESOLUTION}, Hann window, magnitude spectrum, floating point transform,
+ * carrier tracking and a single carrier at {@link #DEFAULT_CARRIER}.
+ * <p>
+ * Settings are read when something is created, later changes don't affect it.
+ */
+public class EngineFactory {
+
+    /** Frequency of the default carrier, in Hz. */
+    public static final float DEFAULT_CARRIER = 20000;
+
+    /** Maximal distance between played and found carrier, in Hz. */
+    public static final int CARRIER_SEARCH_RADIUS = 1000;
+
+    /** Frame, hop and read sizes used unless set explicitly. */
+    private EngineProfile profile = EngineProfile.HIGH_RESOLUTION;
+
+    /** Requested frame size, power of two. 0 means the one of {@link #profile}. */
+    private int frameSize;
+
+    /** Requested samples between two bandwidth evaluations. 0 means the one of {@link #profile}. */
+    private int hopSize;
+
+    /** Window applied to every frame before transforming it. */
+    private WindowFunction window = new HannWindow();
+
+    /** Whether frames are transformed in fixed point. */
+    private boolean fixedPoint;
+
+    /** Whether spectra hold squared magnitudes, an approximation of the magnitude detection. */
+    private boolean powerSpectrum;
+
+    /** Whether carriers are kept in the center of their bands. */
+    private boolean carrierTracking = true;
+
+    /** Frequencies of carriers. */
+    private float[] carriers = {DEFAULT_CARRIER};
+
+    /** Detection constants. */
+    private DetectorConfig config = new DetectorConfig();
+
+    /** Returns latency profile. */
+    public EngineProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets latency profile choosing frame size, hop size and microphone read size from the sample
+     * rate, see {@link EngineProfile}. Sizes set with {@link #setFrameSize(int)} and
+     * {@link #setHopSize(int)} take precedence.
+     *
+     * @param profile latency profile, {@link EngineProfile#HIGH_RESOLUTION} by default
+     */
+    public void setProfile(EngineProfile profile) {
+        if(profile == null) {
+            throw new IllegalArgumentException("Profile can't be null");
+        }
+        this.profile = profile;
+    }
+
+    /**
+     * Sets number of samples in every analyzed frame, independently of microphone buffer size.
+     *
+     * @param frameSize power of two, 0 for the one of the profile
+     */
+    public void setFrameSize(int frameSize) {
+        if(frameSize < 0 || (frameSize & (frameSize - 1)) != 0) {
+            throw new IllegalArgumentException("Frame size must be a power of two");
+        }
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Sets how many samples are read between two bandwidth evaluations.
+     *
+     * @param hopSize samples per evaluation, 0 for the one of the profile
+     */
+    public void setHopSize(int hopSize) {
+        this.hopSize = Math.max(0, hopSize);
+    }
+
+    /**
+     * Returns frame size at given sample rate: the requested one, or the one of the profile but not
+     * shorter than a requested hop, which would skip samples.
+     */
+    public int getFrameSize(int sampleRate) {
+        if(frameSize > 0) {
+            return frameSize;
+        }
+        return Math.max(profile.getFrameSize(sampleRate), getHigherTwoPower(getRequestedHopSize(sampleRate)));
+    }
+
+    /** Returns samples between two bandwidth evaluations at given sample rate, never above frame size. */
+    public int getHopSize(int sampleRate) {
+        return Math.min(getRequestedHopSize(sampleRate), getFrameSize(sampleRate));
+    }
+
+    /** Returns samples of a single channel read from the microphone at once at given sample rate. */
+    public int getReadSize(int sampleRate) {
+        return hopSize > 0 ? getHopSize(sampleRate) : profile.getReadSize(sampleRate);
+    }
+
+    private int getRequestedHopSize(int sampleRate) {
+        return hopSize > 0 ? hopSize : profile.getHopSize(sampleRate);
+    }
+
+    /** Returns window applied to frames. */
+    public WindowFunction getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets window applied to frames before transforming them. Sliding DFT only works with
+     * {@link pl.edu.agh.doppler.fft.CosineSumWindow}s.
+     *
+     * @param window window function, Hann by default
+     */
+    public void setWindow(WindowFunction window) {
+        this.window = window;
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * Sets whether frames are transformed in fixed point, see
+     * {@link BandwidthAnalyzer#setFixedPoint(boolean)}.
+     *
+     * @param fixedPoint true for fixed point, false for floats (default)
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    public boolean isPowerSpectrum() {
+        return powerSpectrum;
+    }
+
+    /**
+     * Sets whether spectra hold squared magnitudes, see {@link BandwidthAnalyzer#setPowerSpectrum(boolean)}.
+     * Power saves a square root per band but only approximates the gestures detected on magnitudes.
+     *
+     * @param powerSpectrum true for power, false for magnitudes (default)
+     */
+    public void setPowerSpectrum(boolean powerSpectrum) {
+        this.powerSpectrum = powerSpectrum;
+    }
+
+    public boolean isCarrierTracking() {
+        return carrierTracking;
+    }
+
+    /**
+     * Sets whether carriers drifting in the spectrum are retuned, see {@link CarrierTracker}.
+     *
+     * @param carrierTracking true to retune (default), false to keep played frequencies
+     */
+    public void setCarrierTracking(boolean carrierTracking) {
+        this.carrierTracking = carrierTracking;
+    }
+
+    /** Returns frequencies of carriers. */
+    public float[] getCarriers() {
+        return carriers.clone();
+    }
+
+    /**
+     * Sets carrier tones analyzed in the same spectrum.
+     *
+     * @param frequencies carrier frequencies in Hz
+     */
+    public void setCarriers(float... frequencies) {
+        if(frequencies.length == 0) {
+            throw new IllegalArgumentException("At least one carrier is needed");
+        }
+        for(float frequency : frequencies) {
+            if(frequency <= 0) {
+                throw new IllegalArgumentException("Carrier frequency must be positive");
+            }
+        }
+        carriers = frequencies.clone();
+    }
+
+    /** Returns detection constants. */
+    public DetectorConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Sets detection constants.
+     *
+     * @param config constants, device defaults by default
+     */
+    public void setConfig(DetectorConfig config) {
+        if(config == null) {
+            throw new IllegalArgumentException("Config can't be null");
+        }
+        this.config = config;
+    }
+
+    /**
+     * Creates analyzer computing bands between given frequencies plus <code>margin</code> bands on
+     * both sides.
+     *
+     * @param sampleRate sample rate of analyzed samples
+     * @param minFreq lowest possible frequency of a carrier
+     * @param maxFreq highest possible frequency of a carrier
+     * @param margin bands computed on both sides of the frequency range
+     */
+    public BandwidthAnalyzer createAnalyzer(int sampleRate, int minFreq, int maxFreq, int margin) {
+        BandwidthAnalyzer analyzer = new BandwidthAnalyzer(sampleRate, getFrameSize(sampleRate),
+                getHopSize(sampleRate), window, minFreq, maxFreq, margin);
+        analyzer.setFixedPoint(fixedPoint);
+        //compare squared magnitudes with squared thresholds, no square root per band
+        analyzer.setPowerSpectrum(powerSpectrum);
+        return analyzer;
+    }
+
+    /**
+     * Creates engines of all channels. Every engine lets the tone settle for a second before looking
+     * for the carriers within {@link #CARRIER_SEARCH_RADIUS} of given frequencies.
+     *
+     * @param sampleRate sample rate of analyzed samples
+     * @param channels number of channels
+     * @param frequencies played carrier frequencies, e.g. {@link #getCarriers()}
+     */
+    public GestureEngine[] createEngines(int sampleRate, int channels, float[] frequencies) {
+        float lowest = frequencies[0];
+        float highest = frequencies[0];
+        for(float carrier : frequencies) {
+            lowest = Math.min(lowest, carrier);
+            highest = Math.max(highest, carrier);
+        }
+        int margin = config.getRelevantFreqBands((float) sampleRate / getFrameSize(sampleRate));
+        GestureEngine[] engines = new GestureEngine[channels];
+        for(int channel = 0; channel < channels; ++channel) {
+            BandwidthAnalyzer analyzer = createAnalyzer(sampleRate, Math.round(lowest) - CARRIER_SEARCH_RADIUS,
+                    Math.round(highest) + CARRIER_SEARCH_RADIUS, margin);
+            engines[channel] = new GestureEngine(analyzer, frequencies, CARRIER_SEARCH_RADIUS, sampleRate, config);
+        }
+        return engines;
+    }
+
+    /**
+     * Creates tracker of carriers heard by given engines.
+     *
+     * @param frequencies played carrier frequencies the engines were created with
+     * @param engines engines of all channels
+     * @return tracker, null when carrier tracking is off
+     */
+    public CarrierTracker createTracker(float[] frequencies, GestureEngine... engines) {
+        return carrierTracking ? new CarrierTracker(frequencies, config, engines) : null;
+    }
+
+    /**
+     * compute nearest higher power of two
+     * @see <a href="http://www.graphics.stanford.edu/~seander/bithacks.html">Round up to the next highest power of 2</a>
+     */
+    static int getHigherTwoPower(int val) {
+        val--;
+        val |= val >> 1;
+        val |= val >> 2;
+        val |= val >> 4;
+        val |= val >> 8;
+        val |= val >> 16;
+        val++;
+        return (val);
+    }
+}
@@ -0,0 +1,73 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Trade-off between gesture latency and frequency resolution. Frame size, hop size and microphone
+ * read size follow from the latency budget of the profile and the sample rate only, so the same
+ * profile behaves the same on every device regardless of its minimal microphone buffer.
+ * <p>
+ * A frame is the longest power of two that fits in the budget. Shorter frames react faster but
+ * have wider bands, so a movement spreads over fewer of them. {@link DetectorConfig} holds times and
+ * frequency spans, converted to hops and bands of the chosen profile.
+ */
+public enum EngineProfile {
+
+    /** About 23ms frames at 44.1kHz, bandwidth evaluated every 6ms. */
+    LOW_LATENCY(25, 4),
+
+    /** About 46ms frames at 44.1kHz, bandwidth evaluated every 12ms. */
+    BALANCED(50, 4),
+
+    /** About 93ms frames at 44.1kHz, bandwidth evaluated every 46ms. */
+    HIGH_RESOLUTION(100, 2);
+
+    /** Smallest frame, below it bands get too wide to see a hand at all. */
+    static final int MIN_FRAME_SIZE = 256;
+
+    /** Maximal duration of a frame, in milliseconds. */
+    private final int latencyBudget;
+
+    /** Frame size divided by hop size. */
+    private final int hopsPerFrame;
+
+    EngineProfile(int latencyBudget, int hopsPerFrame) {
+        this.latencyBudget = latencyBudget;
+        this.hopsPerFrame = hopsPerFrame;
+    }
+
+    /** Returns maximal duration of a frame, in milliseconds. */
+    public int getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    /**
+     * Returns frame size, the largest power of two not longer than the latency budget.
+     *
+     * @param sampleRate sample rate in Hz
+     */
+    public int getFrameSize(int sampleRate) {
+        if(sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        int budget = (int) ((long) sampleRate * latencyBudget / 1000);
+        return Math.max(MIN_FRAME_SIZE, Integer.highestOneBit(budget));
+    }
+
+    /**
+     * Returns samples between two bandwidth evaluations.
+     *
+     * @param sampleRate sample rate in Hz
+     */
+    public int getHopSize(int sampleRate) {
+        return getFrameSize(sampleRate) / hopsPerFrame;
+    }
+
+    /**
+     * Returns samples of a single channel read from the microphone at once. A whole hop is read at
+     * once, so a hop is analyzed as soon as it is recorded and not after a longer read completes.
+     *
+     * @param sampleRate sample rate in Hz
+     */
+    public int getReadSize(int sampleRate) {
+        return getHopSize(sampleRate);
+    }
+}
@@ -0,0 +1,108 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Gesture state machine. Watches direction of bandwidth differences over a window of frames
+ * and reports push, pull, tap or double tap depending on how many times the direction changed.
+ */
+public class GestureDetector {
+
+    /** Nothing should be reported for this frame, detector is waiting after a gesture. */
+    public static final int IGNORED = -1;
+
+    /** No gesture in this frame. */
+    public static final int NOTHING = 0;
+
+    /** Swipe towards. */
+    public static final int PUSH = 1;
+
+    /** Swipe away. */
+    public static final int PULL = 2;
+
+    /** Tap. */
+    public static final int TAP = 3;
+
+    /** Double tap. */
+    public static final int DOUBLE_TAP = 4;
+
+    /** Time scanned after a direction change to wait for taps or double taps, in milliseconds. */
+    static final int GESTURE_WINDOW = 464;
+
+    /** Bandwidth above which a frame counts as movement, in Hz. */
+    static final int MOVEMENT_BANDWIDTH = 43;
+
+    private final int cyclesToRead;
+
+    private final int movementBandwidth;
+
+    /** Previous move direction. */
+    private int previousDirection = 0;
+
+    /** Counter for direction changes. */
+    private int directionChanges;
+
+    /** Cycles left to read. */
+    private int cyclesLeftToRead = -1;
+
+    /** Cycles left to start recording detecting. */
+    private int cyclesToRefresh;
+
+    /**
+     * Creates detector with gesture window and movement threshold taken from given configuration.
+     *
+     * @param config detection constants
+     * @param sampleRate sample rate in Hz
+     * @param hopSize samples between two updates
+     * @param bandWidth width of a band in Hz
+     */
+    public GestureDetector(DetectorConfig config, int sampleRate, int hopSize, float bandWidth) {
+        cyclesToRead = config.getGestureHops(sampleRate, hopSize);
+        movementBandwidth = config.getMovementBands(bandWidth);
+    }
+
+    /**
+     * Updates state with bandwidths of next frame.
+     *
+     * @param leftBandwidth left bandwidth value
+     * @param rightBandwidth right bandwidth value
+     * @return gesture detected in this frame, {@link #NOTHING} or {@link #IGNORED}
+     */
+    public int update(final int leftBandwidth, final int rightBandwidth) {
+        //early escape if need to refresh
+        if(cyclesToRefresh > 0) {
+            cyclesToRefresh--;
+            return IGNORED;
+        }
+
+        if(leftBandwidth > movementBandwidth || rightBandwidth > movementBandwidth) {
+            //implement gesture logic
+            int difference = leftBandwidth - rightBandwidth;
+            int direction = (int) Math.signum(difference);
+
+            if(direction != 0 && direction != previousDirection) {
+                //scan a 4 frame window to wait for taps or double taps
+                cyclesLeftToRead = cyclesToRead;
+                previousDirection = direction;
+                directionChanges++;
+            }
+        }
+
+        cyclesLeftToRead--;
+
+        if(cyclesLeftToRead != 0) {
+            return NOTHING;
+        }
+
+        int gesture;
+        if(directionChanges == 1) {
+            gesture = previousDirection == -1 ? PUSH : PULL;
+        } else if(directionChanges == 2) {
+            gesture = TAP;
+        } else {
+            gesture = DOUBLE_TAP;
+        }
+        previousDirection = 0;
+        directionChanges = 0;
+        cyclesToRefresh = cyclesToRead;
+        return gesture;
+    }
+}
@@ -0,0 +1,284 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Whole detection pipeline without any audio input or threading: samples go in one hop at a time,
+ * gestures come out.
+ * <p>
+ * First {@code settleSamples} samples only fill the spectrum, then the loudest band between
+ * {@code minFreq} and {@code maxFreq} becomes the primary tone and every next hop is passed through
+ * {@link BandwidthAnalyzer}, {@link GestureDetector} and {@link Calibrator}.
+ * <p>
+ * With several carrier tones bandwidths are measured around every carrier and the lower median
+ * on each side is used, so a single jammed or blocked carrier doesn't produce gestures.
+ */
+public class GestureEngine {
+
+    //modded from the soundwave paper. frequency bins are scanned until the amp drops below
+    // 1% of the primary tone peak
+    static final double MAX_VOL_RATIO_DEFAULT = 0.1;
+
+    private final BandwidthAnalyzer analyzer;
+
+    private final GestureDetector detector;
+
+    private final Calibrator calibrator;
+
+    private final double secondPeakRatio;
+
+    private final int relevantFreqWindow;
+
+    /** Frequency range searched for every carrier. */
+    private final int[] minFreqs;
+
+    private final int[] maxFreqs;
+
+    /** Samples left before primary tone is searched. */
+    private int samplesToSettle;
+
+    /** Whether primary tone was found and gestures are detected. */
+    private boolean ready;
+
+    private double maxVolRatio;
+
+    /** Bandwidths of the last processed hop, 0 until ready. */
+    private int leftBandwidth;
+
+    private int rightBandwidth;
+
+    /** Bandwidths of every carrier in the last processed hop. */
+    private final int[] carrierLeft;
+
+    private final int[] carrierRight;
+
+    /** Scratch for the median. */
+    private final int[] sorted;
+
+    /**
+     * @param analyzer spectrum analysis
+     * @param minFreq lowest possible frequency of the primary tone
+     * @param maxFreq highest possible frequency of the primary tone
+     * @param settleSamples samples to wait before searching for the primary tone, e.g. to let it start playing
+     */
+    public GestureEngine(BandwidthAnalyzer analyzer, int minFreq, int maxFreq, int settleSamples) {
+        this(analyzer, minFreq, maxFreq, settleSamples, new DetectorConfig());
+    }
+
+    /**
+     * @param analyzer spectrum analysis, computing at least {@link DetectorConfig#getRelevantFreqBands(float)}
+     *                 bands around the frequency range
+     * @param minFreq lowest possible frequency of the primary tone
+     * @param maxFreq highest possible frequency of the primary tone
+     * @param settleSamples samples to wait before searching for the primary tone, e.g. to let it start playing
+     * @param config detection constants
+     */
+    public GestureEngine(BandwidthAnalyzer analyzer, int minFreq, int maxFreq, int settleSamples,
+                         DetectorConfig config) {
+        this(analyzer, new int[] {minFreq}, new int[] {maxFreq}, settleSamples, config);
+    }
+
+    /**
+     * Creates engine for several carriers played at the same time. Every carrier is searched
+     * within <code>searchRadius</code> Hz of its frequency, but not further than half way to
+     * its neighbour.
+     *
+     * @param analyzer spectrum analysis, computing bands of all carriers
+     * @param carriers frequencies of played carriers
+     * @param searchRadius maximal distance of found carrier from its frequency
+     * @param settleSamples samples to wait before searching for the carriers, e.g. to let them start playing
+     * @param config detection constants
+     */
+    public GestureEngine(BandwidthAnalyzer analyzer, float[] carriers, int searchRadius, int settleSamples,
+                         DetectorConfig config) {
+        this(analyzer, searchRanges(carriers, searchRadius, true), searchRanges(carriers, searchRadius, false),
+                settleSamples, config);
+    }
+
+    /**
+     * @param analyzer spectrum analysis, computing bands of all carriers
+     * @param minFreqs lowest possible frequency of every carrier
+     * @param maxFreqs highest possible frequency of every carrier
+     * @param settleSamples samples to wait before searching for the carriers, e.g. to let them start playing
+     * @param config detection constants
+     */
+    public GestureEngine(BandwidthAnalyzer analyzer, int[] minFreqs, int[] maxFreqs, int settleSamples,
+                         DetectorConfig config) {
+        if(minFreqs.length == 0 || minFreqs.length != maxFreqs.length) {
+            throw new IllegalArgumentException("Every carrier needs minimal and maximal frequency");
+        }
+        this.analyzer = analyzer;
+        //constants in ms and Hz become hops and bands of this analyzer
+        int sampleRate = analyzer.getSampleRate();
+        int hopSize = analyzer.getHopSize();
+        float bandWidth = analyzer.getBandWidth();
+        detector = new GestureDetector(config, sampleRate, hopSize, bandWidth);
+        calibrator = new Calibrator(config, sampleRate, hopSize);
+        maxVolRatio = config.getMaxVolRatio();
+        secondPeakRatio = config.getSecondPeakRatio();
+        relevantFreqWindow = config.getRelevantFreqBands(bandWidth);
+        this.minFreqs = minFreqs.clone();
+        this.maxFreqs = maxFreqs.clone();
+        carrierLeft = new int[minFreqs.length];
+        carrierRight = new int[minFreqs.length];
+        sorted = new int[minFreqs.length];
+        this.samplesToSettle = settleSamples;
+    }
+
+    /** Returns number of samples expected by {@link #process(short[], int)}. */
+    public int getHopSize() {
+        return analyzer.getHopSize();
+    }
+
+    public BandwidthAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /** Tells whether primary tone was found and gestures are detected. */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Returns current volume ratio ending bandwidths, as adjusted by {@link Calibrator}. */
+    public double getMaxVolRatio() {
+        return maxVolRatio;
+    }
+
+    /** Returns left bandwidth of the last processed hop, 0 until ready. */
+    public int getLeftBandwidth() {
+        return leftBandwidth;
+    }
+
+    /** Returns right bandwidth of the last processed hop, 0 until ready. */
+    public int getRightBandwidth() {
+        return rightBandwidth;
+    }
+
+    /** Returns number of carriers. */
+    public int getCarrierCount() {
+        return carrierLeft.length;
+    }
+
+    /** Returns left bandwidth of given carrier in the last processed hop, 0 until ready. */
+    public int getLeftBandwidth(int carrier) {
+        return carrierLeft[carrier];
+    }
+
+    /** Returns right bandwidth of given carrier in the last processed hop, 0 until ready. */
+    public int getRightBandwidth(int carrier) {
+        return carrierRight[carrier];
+    }
+
+    /**
+     * Computes frequency ranges searched for carriers.
+     *
+     * @param lower true for lower ends, false for upper ends
+     */
+    private static int[] searchRanges(float[] carriers, int searchRadius, boolean lower) {
+        int[] ends = new int[carriers.length];
+        for(int c = 0; c < carriers.length; ++c) {
+            float radius = searchRadius;
+            for(int o = 0; o < carriers.length; ++o) {
+                if(o != c) {
+                    radius = Math.min(radius, Math.abs(carriers[o] - carriers[c]) / 2);
+                }
+            }
+            ends[c] = Math.round(lower ? carriers[c] - radius : carriers[c] + radius);
+        }
+        return ends;
+    }
+
+    /**
+     * Processes next hop of samples.
+     *
+     * @param samples buffer with {@link #getHopSize()} samples after offset
+     * @param offset index of first sample
+     * @return one of {@link GestureDetector} constants
+     */
+    public int process(short[] samples, int offset) {
+        return process(samples, offset, 1);
+    }
+
+    /**
+     * Processes next hop of one channel of interleaved samples.
+     *
+     * @param samples buffer with {@link #getHopSize()} frames after offset
+     * @param offset index of first sample of the channel
+     * @param stride number of interleaved channels
+     * @return one of {@link GestureDetector} constants
+     */
+    public int process(short[] samples, int offset, int stride) {
+        analyzer.process(samples, offset, stride);
+        return detect(true);
+    }
+
+    /**
+     * Processes spectrum of the next hop computed elsewhere, see
+     * {@link BandwidthAnalyzer#processSpectrum(float[], int)}. Bands read by the detection don't
+     * change, so the spectrum is never switched to a sliding DFT.
+     *
+     * @param magnitudes magnitudes of bands from {@link BandwidthAnalyzer#getFirstBand()}
+     *                   to {@link BandwidthAnalyzer#getLastBand()}
+     * @param offset index of the magnitude of first band
+     * @return one of {@link GestureDetector} constants
+     */
+    public int processSpectrum(float[] magnitudes, int offset) {
+        analyzer.processSpectrum(magnitudes, offset);
+        return detect(false);
+    }
+
+    /**
+     * Runs detection on the current spectrum.
+     *
+     * @param track whether to switch to a sliding DFT once the primary tone is found
+     */
+    private int detect(boolean track) {
+        if(!ready) {
+            samplesToSettle -= analyzer.getHopSize();
+            if(samplesToSettle > 0) {
+                return GestureDetector.IGNORED;
+            }
+            analyzer.optimizeFrequencies(minFreqs, maxFreqs);
+            if(track) {
+                analyzer.startTracking();
+            }
+            ready = true;
+            return GestureDetector.IGNORED;
+        }
+
+        int carriers = carrierLeft.length;
+        for(int c = 0; c < carriers; ++c) {
+            int[] bandwidths = analyzer.getBandwidth(c, maxVolRatio, secondPeakRatio, relevantFreqWindow);
+            carrierLeft[c] = bandwidths[BandwidthAnalyzer.LEFT_BANDWIDTH];
+            carrierRight[c] = bandwidths[BandwidthAnalyzer.RIGHT_BANDWIDTH];
+        }
+        if(carriers == 1) {
+            leftBandwidth = carrierLeft[0];
+            rightBandwidth = carrierRight[0];
+        } else {
+            leftBandwidth = lowerMedian(carrierLeft);
+            rightBandwidth = lowerMedian(carrierRight);
+        }
+
+        int gesture = detector.update(leftBandwidth, rightBandwidth);
+
+        maxVolRatio = calibrator.calibrate(maxVolRatio, leftBandwidth, rightBandwidth);
+
+        return gesture;
+    }
+
+    /** Returns lower median of given values. Values are not modified. */
+    private int lowerMedian(int[] values) {
+        int n = values.length;
+        System.arraycopy(values, 0, sorted, 0, n);
+        //insertion sort, there are only a few carriers
+        for(int i = 1; i < n; ++i) {
+            int value = sorted[i];
+            int j = i - 1;
+            while(j >= 0 && sorted[j] > value) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = value;
+        }
+        return sorted[(n - 1) / 2];
+    }
+}
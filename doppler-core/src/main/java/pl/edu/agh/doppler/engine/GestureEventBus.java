@@ -0,0 +1,216 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes gestures from the analysis thread to listeners on an executor chosen by the caller, so
+ * a slow listener never delays analysis of the next hop.
+ * <p>
+ * Gestures go through a preallocated ring of {@link #capacity()} events for exactly one publishing
+ * thread. Publishing never blocks and allocates nothing: when listeners fall behind and the ring is
+ * full the gesture is dropped and counted. A run of {@link GestureDetector#NOTHING} is delivered
+ * once, when it starts, instead of after every idle hop.
+ * <p>
+ * Events are delivered in order by a single task at a time, which drains everything published so
+ * far, so the executor may have any number of threads. When the executor rejects the task, e.g.
+ * after it was shut down, the gesture is dropped and counted as well.
+ */
+public class GestureEventBus {
+
+    /** Default capacity, gestures are rare and idle runs take a single event. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int[] events;
+
+    private final int mask;
+
+    /** Total events published. Published with lazySet after the event is stored. */
+    private final AtomicLong writePosition = new AtomicLong();
+
+    /** Total events delivered. Only moved by the delivery task. */
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    /** Whether {@link #deliveryTask} is scheduled or running. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile Executor executor;
+
+    /** Listeners, replaced as a whole on every change. */
+    private volatile GestureListener[] listeners = new GestureListener[0];
+
+    /** Whether the last published event was {@link GestureDetector#NOTHING}. Publisher only. */
+    private boolean idle;
+
+    /** Delivers published events, see {@link #drain()}. */
+    private final Runnable deliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                try {
+                    drain();
+                } finally {
+                    scheduled.set(false);
+                }
+                //events published after the drain but before the flag was cleared weren't scheduled
+            } while(readPosition.get() != writePosition.get() && scheduled.compareAndSet(false, true));
+        }
+    };
+
+    /**
+     * @param executor runs delivery of events to listeners
+     */
+    public GestureEventBus(Executor executor) {
+        this(executor, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param executor runs delivery of events to listeners
+     * @param capacity minimal number of events waiting for delivery, rounded up to a power of two
+     */
+    public GestureEventBus(Executor executor, int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        setExecutor(executor);
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        events = new int[size];
+        mask = size - 1;
+    }
+
+    /** Returns capacity in events. */
+    public int capacity() {
+        return events.length;
+    }
+
+    /** Returns number of events dropped because listeners fell behind or the executor rejected them. */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /** Sets executor running delivery of events published from now on. */
+    public void setExecutor(Executor executor) {
+        if(executor == null) {
+            throw new IllegalArgumentException("Executor can't be null");
+        }
+        this.executor = executor;
+    }
+
+    /** Adds listener. Each listener is added once. */
+    public synchronized void addListener(GestureListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Listener can't be null");
+        }
+        GestureListener[] current = listeners;
+        for(GestureListener added : current) {
+            if(added == listener) {
+                return;
+            }
+        }
+        GestureListener[] changed = new GestureListener[current.length + 1];
+        System.arraycopy(current, 0, changed, 0, current.length);
+        changed[current.length] = listener;
+        listeners = changed;
+    }
+
+    /** Removes listener. Events already being delivered may still reach it. */
+    public synchronized void removeListener(GestureListener listener) {
+        GestureListener[] current = listeners;
+        for(int i = 0; i < current.length; ++i) {
+            if(current[i] == listener) {
+                GestureListener[] changed = new GestureListener[current.length - 1];
+                System.arraycopy(current, 0, changed, 0, i);
+                System.arraycopy(current, i + 1, changed, i, current.length - i - 1);
+                listeners = changed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes gesture of the last hop. Called by the publishing thread only, never blocks.
+     *
+     * @param gesture one of {@link GestureDetector} constants, {@link GestureDetector#IGNORED} is skipped
+     */
+    public void publish(int gesture) {
+        if(gesture == GestureDetector.IGNORED || (gesture == GestureDetector.NOTHING && idle)) {
+            return;
+        }
+        long write = writePosition.get();
+        if(write - readPosition.get() == events.length) {
+            if(gesture != GestureDetector.NOTHING) {
+                droppedEvents.incrementAndGet();
+            }
+            //an idle run is still delivered, by one of its next hops
+            return;
+        }
+        events[(int) (write & mask)] = gesture;
+        writePosition.lazySet(write + 1);
+        boolean wasIdle = idle;
+        idle = gesture == GestureDetector.NOTHING;
+
+        if(scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(deliveryTask);
+            } catch(RejectedExecutionException e) {
+                //nothing drains while the flag is held, so the event can be taken back
+                writePosition.set(write);
+                idle = wasIdle;
+                scheduled.set(false);
+                if(gesture != GestureDetector.NOTHING) {
+                    droppedEvents.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the next {@link GestureDetector#NOTHING} delivered even when the last published event
+     * was one, e.g. when detection restarts. Called by the publishing thread only.
+     */
+    public void resetIdle() {
+        idle = false;
+    }
+
+    /** Delivers all published events to current listeners. */
+    private void drain() {
+        long read = readPosition.get();
+        long write = writePosition.get();
+        while(read != write) {
+            int gesture = events[(int) (read & mask)];
+            readPosition.lazySet(++read);
+            for(GestureListener listener : listeners) {
+                deliver(listener, gesture);
+            }
+            if(read == write) {
+                write = writePosition.get();
+            }
+        }
+    }
+
+    private static void deliver(GestureListener listener, int gesture) {
+        switch(gesture) {
+            case GestureDetector.PUSH:
+                listener.onPush();
+                break;
+            case GestureDetector.PULL:
+                listener.onPull();
+                break;
+            case GestureDetector.TAP:
+                listener.onTap();
+                break;
+            case GestureDetector.DOUBLE_TAP:
+                listener.onDoubleTap();
+                break;
+            case GestureDetector.NOTHING:
+                listener.onNothing();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package pl.edu.agh.doppler.engine;
+
+/**
+ * Receives gestures detected by {@link GestureDetector}, see {@link GestureEventBus}.
+ */
+public interface GestureListener {
+
+    /** On swipe towards. */
+    void onPush();
+
+    /** On swipe away. */
+    void onPull();
+
+    /** On tap. */
+    void onTap();
+
+    /** On double tap. */
+    void onDoubleTap();
+
+    /** When movement stops being detected. */
+    void onNothing();
+}
@@ -0,0 +1,274 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Detection on interleaved samples of several microphones. Every channel has its own
+ * {@link GestureEngine}; channels are analyzed in parallel, so a hop takes about as long as with
+ * a single microphone. Channels other than the first one are analyzed by their own worker thread,
+ * woken up with {@link LockSupport#unpark(Thread)} every hop, so a hop allocates nothing. Workers
+ * run until {@link #close()}.
+ * <p>
+ * Besides per-channel gestures a fused gesture is detected from the widest bandwidths of all
+ * channels, and the channel with the strongest movement tells on which side of the device it was.
+ * With a single channel the fused result is the channel result.
+ */
+public class MultiChannelEngine {
+
+    private final GestureEngine[] engines;
+
+    /** Analyze channels 1 and up, channel 0 runs on the calling thread. Null when not parallel. */
+    private final Worker[] workers;
+
+    /** Gesture of every channel in the last hop. */
+    private final int[] gestures;
+
+    /** Gestures detected on the widest bandwidths of all channels. */
+    private final GestureDetector fusedDetector;
+
+    private int fusedGesture = GestureDetector.IGNORED;
+
+    private int fusedLeftBandwidth;
+
+    private int fusedRightBandwidth;
+
+    private int dominantChannel;
+
+    /** Samples of the current hop, published to workers by the write of {@link #hop}. */
+    private short[] samples;
+
+    private int offset;
+
+    /** Number of the current hop, workers analyze their channel when it changes. */
+    private volatile long hop;
+
+    /** Whether workers should exit. */
+    private volatile boolean closed;
+
+    /** Workers still analyzing the current hop. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /** Thread waiting for workers. */
+    private volatile Thread waiter;
+
+    /** First failure of a worker in the current hop. */
+    private volatile RuntimeException failure;
+
+    /**
+     * Creates engine analyzing channels one after another on the calling thread.
+     *
+     * @param engines engine of every channel, in order of interleaving
+     */
+    public MultiChannelEngine(GestureEngine[] engines) {
+        this(engines, false, new DetectorConfig());
+    }
+
+    /**
+     * @param engines engine of every channel, in order of interleaving, with equal hop sizes
+     * @param parallel true to analyze channels in parallel on worker threads, stopped by
+     *                 {@link #close()}; false to analyze them one after another
+     * @param config constants of the fused gesture detection
+     */
+    public MultiChannelEngine(GestureEngine[] engines, boolean parallel, DetectorConfig config) {
+        if(engines.length == 0) {
+            throw new IllegalArgumentException("At least one channel is needed");
+        }
+        for(GestureEngine engine : engines) {
+            if(engine.getHopSize() != engines[0].getHopSize()) {
+                throw new IllegalArgumentException("All channels need the same hop size");
+            }
+        }
+        this.engines = engines.clone();
+        gestures = new int[engines.length];
+        BandwidthAnalyzer analyzer = engines[0].getAnalyzer();
+        fusedDetector = new GestureDetector(config, analyzer.getSampleRate(), analyzer.getHopSize(),
+                analyzer.getBandWidth());
+
+        if(parallel && engines.length > 1) {
+            workers = new Worker[engines.length];
+            for(int c = 1; c < engines.length; ++c) {
+                workers[c] = new Worker(c);
+                workers[c].start();
+            }
+        } else {
+            workers = null;
+        }
+    }
+
+    /** Stops worker threads, call once no hop is being processed. The engine can't be used afterwards. */
+    public void close() {
+        closed = true;
+        if(workers != null) {
+            for(int c = 1; c < workers.length; ++c) {
+                LockSupport.unpark(workers[c]);
+            }
+        }
+    }
+
+    /** Returns number of channels. */
+    public int getChannelCount() {
+        return engines.length;
+    }
+
+    /** Returns number of frames expected by {@link #process(short[], int)}. */
+    public int getHopSize() {
+        return engines[0].getHopSize();
+    }
+
+    /** Returns engine of given channel. */
+    public GestureEngine getEngine(int channel) {
+        return engines[channel];
+    }
+
+    /** Returns gesture of given channel in the last hop. */
+    public int getGesture(int channel) {
+        return gestures[channel];
+    }
+
+    /** Returns fused gesture of the last hop, same as returned by {@link #process(short[], int)}. */
+    public int getFusedGesture() {
+        return fusedGesture;
+    }
+
+    /** Returns widest left bandwidth of all channels in the last hop. */
+    public int getFusedLeftBandwidth() {
+        return fusedLeftBandwidth;
+    }
+
+    /** Returns widest right bandwidth of all channels in the last hop. */
+    public int getFusedRightBandwidth() {
+        return fusedRightBandwidth;
+    }
+
+    /** Returns channel with widest bandwidths in the last hop, i.e. the side where movement was. */
+    public int getDominantChannel() {
+        return dominantChannel;
+    }
+
+    /** Tells whether all channels found their primary tone. */
+    public boolean isReady() {
+        for(GestureEngine engine : engines) {
+            if(!engine.isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Processes next hop of interleaved samples.
+     *
+     * @param samples buffer with {@link #getHopSize()} frames of {@link #getChannelCount()} samples after offset
+     * @param offset index of first sample
+     * @return fused gesture, one of {@link GestureDetector} constants
+     */
+    public int process(short[] samples, int offset) {
+        int channels = engines.length;
+        //bandwidths are measured only from the hop after the one in which tone is found
+        boolean measured = isReady();
+        this.samples = samples;
+        this.offset = offset;
+
+        if(workers == null) {
+            for(int c = 0; c < channels; ++c) {
+                analyze(c);
+            }
+        } else {
+            if(closed) {
+                throw new IllegalStateException("Engine is closed");
+            }
+            failure = null;
+            waiter = Thread.currentThread();
+            pending.set(channels - 1);
+            hop++;
+            for(int c = 1; c < channels; ++c) {
+                LockSupport.unpark(workers[c]);
+            }
+            analyze(0);
+            while(pending.get() > 0) {
+                LockSupport.park(this);
+            }
+            waiter = null;
+            if(failure != null) {
+                throw failure;
+            }
+        }
+
+        return fuse(measured);
+    }
+
+    /** Analyzes one channel every hop, until the engine is closed. */
+    private final class Worker extends Thread {
+
+        private final int channel;
+
+        /** Last analyzed hop. */
+        private long analyzed;
+
+        Worker(int channel) {
+            super("DopplerChannel" + channel);
+            this.channel = channel;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while(!closed) {
+                long current = hop;
+                if(current == analyzed) {
+                    //an unpark before parking makes park return at once, so no hop is missed
+                    LockSupport.park(this);
+                    continue;
+                }
+                analyzed = current;
+                try {
+                    analyze(channel);
+                } catch(RuntimeException e) {
+                    failure = e;
+                } finally {
+                    if(pending.decrementAndGet() == 0) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+            }
+        }
+    }
+
+    private void analyze(int channel) {
+        gestures[channel] = engines[channel].process(samples, offset + channel, engines.length);
+    }
+
+    /**
+     * Combines results of all channels of the last hop.
+     *
+     * @param measured whether all channels measured bandwidths in the last hop
+     */
+    private int fuse(boolean measured) {
+        if(engines.length == 1) {
+            fusedLeftBandwidth = engines[0].getLeftBandwidth();
+            fusedRightBandwidth = engines[0].getRightBandwidth();
+            fusedGesture = gestures[0];
+            return fusedGesture;
+        }
+
+        int left = 0;
+        int right = 0;
+        int strongest = -1;
+        for(int c = 0; c < engines.length; ++c) {
+            GestureEngine engine = engines[c];
+            left = Math.max(left, engine.getLeftBandwidth());
+            right = Math.max(right, engine.getRightBandwidth());
+            int movement = engine.getLeftBandwidth() + engine.getRightBandwidth();
+            if(movement > strongest) {
+                strongest = movement;
+                dominantChannel = c;
+            }
+        }
+        fusedLeftBandwidth = left;
+        fusedRightBandwidth = right;
+
+        fusedGesture = measured ? fusedDetector.update(left, right) : GestureDetector.IGNORED;
+        return fusedGesture;
+    }
+}
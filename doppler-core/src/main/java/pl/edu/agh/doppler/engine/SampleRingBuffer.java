@@ -0,0 +1,157 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free ring buffer of PCM samples for exactly one producer thread and one
+ * consumer thread. Positions only grow, the producer owns {@link #writePosition},
+ * the consumer owns {@link #readPosition}, so no locks or CAS loops are needed.
+ * Nothing is allocated after construction.
+ * <p>
+ * The producer never blocks. When the consumer falls behind, samples that don't fit
+ * are dropped and counted. With interleaved channels only whole frames are dropped, so
+ * channels never shift.
+ */
+public class SampleRingBuffer {
+
+    /** How long the consumer parks while waiting for samples, in case an unpark is missed. */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final short[] samples;
+
+    private final int mask;
+
+    /** Samples in a frame, i.e. number of interleaved channels. */
+    private final int frameSize;
+
+    /** Total samples written. Published with lazySet after the samples are stored. */
+    private final AtomicLong writePosition = new AtomicLong();
+
+    /** Total samples read. Published with lazySet after the samples are copied out. */
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    /** Thread waiting in {@link #read(short[], int, int)}, woken up by writes. */
+    private volatile Thread consumer;
+
+    /**
+     * @param capacity minimal capacity in samples, rounded up to a power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * @param capacity minimal capacity in samples, rounded up to a power of two
+     * @param frameSize number of interleaved channels, writes are expected to hold whole frames
+     */
+    public SampleRingBuffer(int capacity, int frameSize) {
+        if(frameSize < 1) {
+            throw new IllegalArgumentException("Frame size must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        samples = new short[size];
+        mask = size - 1;
+        this.frameSize = frameSize;
+    }
+
+    /** Returns capacity in samples. */
+    public int capacity() {
+        return samples.length;
+    }
+
+    /** Returns number of samples ready to be read. */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /** Returns number of samples dropped because the buffer was full. */
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * Writes samples. Called by the producer only, never blocks.
+     *
+     * @param src samples to write
+     * @param offset index of first sample
+     * @param length number of samples
+     * @return number of samples written, the rest was dropped
+     */
+    public int write(short[] src, int offset, int length) {
+        long write = writePosition.get();
+        int free = samples.length - (int) (write - readPosition.get());
+        int count = Math.min(length, free);
+        count -= count % frameSize;
+
+        int start = (int) (write & mask);
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(src, offset, samples, start, first);
+        System.arraycopy(src, offset + first, samples, 0, count - first);
+        writePosition.lazySet(write + count);
+
+        if(count < length) {
+            droppedSamples.addAndGet(length - count);
+        }
+        Thread waiting = consumer;
+        if(waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return count;
+    }
+
+    /**
+     * Reads exactly <code>length</code> samples, waiting for the producer when needed.
+     * Called by the consumer only.
+     *
+     * @param dst destination array
+     * @param offset index of first sample in destination
+     * @param length number of samples, not more than {@link #capacity()}
+     * @return number of samples read, less than length only when the thread was interrupted
+     */
+    public int read(short[] dst, int offset, int length) {
+        int done = 0;
+        while(done < length) {
+            int count = poll(dst, offset + done, length - done);
+            done += count;
+            if(count == 0) {
+                if(Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                consumer = Thread.currentThread();
+                if(available() == 0) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                consumer = null;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Reads up to <code>length</code> samples without waiting. Called by the consumer only.
+     *
+     * @return number of samples read
+     */
+    public int poll(short[] dst, int offset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+
+        int start = (int) (read & mask);
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(samples, start, dst, offset, first);
+        System.arraycopy(samples, 0, dst, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Discards all buffered samples. Called by the consumer only.
+     */
+    public void clear() {
+        readPosition.lazySet(writePosition.get());
+    }
+}
@@ -0,0 +1,211 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Random;
+
+/**
+ * Generates what the microphone would hear: the carrier tones, optionally a Doppler shifted
+ * reflection of a moving hand, an interfering tone and white noise. Used to run detection without
+ * a device.
+ * <p>
+ * Reflection can be changed from another thread while samples are read.
+ */
+public class SyntheticAudioSource implements AudioSource {
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final int sampleRate;
+
+    private final int bufferSize;
+
+    private final double[] carrierFrequencies;
+
+    /** Amplitude of every carrier. */
+    private final double carrierAmplitude;
+
+    private final double noiseAmplitude;
+
+    /** Whether reads are slowed down to the sample rate, like a real microphone. */
+    private final boolean realTime;
+
+    private final Random random;
+
+    /** Frequency shift of the reflection of the first carrier in Hz, negative when moving away. */
+    private volatile double reflectionShift;
+
+    private volatile double reflectionAmplitude;
+
+    private volatile double interferenceFrequency;
+
+    private volatile double interferenceAmplitude;
+
+    /** Phases in cycles, kept between reads so the signal is continuous. */
+    private final double[] carrierPhases;
+
+    private final double[] reflectionPhases;
+
+    private double interferencePhase;
+
+    /** Time at which next sample would be recorded, used when {@link #realTime}. */
+    private long nextSampleNanos;
+
+    private volatile boolean running;
+
+    /**
+     * Creates noiseless source reading as fast as possible.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param carrierFrequency primary tone frequency in Hz
+     * @param carrierAmplitude primary tone amplitude, from 0 to 1
+     */
+    public SyntheticAudioSource(int sampleRate, double carrierFrequency, double carrierAmplitude) {
+        this(sampleRate, carrierFrequency, carrierAmplitude, 0, false, 0);
+    }
+
+    /**
+     * @param sampleRate sample rate in Hz
+     * @param carrierFrequency primary tone frequency in Hz
+     * @param carrierAmplitude primary tone amplitude, from 0 to 1
+     * @param noiseAmplitude white noise amplitude, from 0 to 1
+     * @param realTime whether reads should take as long as recording would
+     * @param seed noise seed, same seed gives same samples
+     */
+    public SyntheticAudioSource(int sampleRate, double carrierFrequency, double carrierAmplitude,
+                                double noiseAmplitude, boolean realTime, long seed) {
+        this(sampleRate, new double[] {carrierFrequency}, carrierAmplitude, noiseAmplitude, realTime, seed);
+    }
+
+    /**
+     * Creates source playing several carriers at once, all with the same amplitude.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param carrierFrequencies carrier frequencies in Hz
+     * @param carrierAmplitude summed amplitude of all carriers, from 0 to 1
+     * @param noiseAmplitude white noise amplitude, from 0 to 1
+     * @param realTime whether reads should take as long as recording would
+     * @param seed noise seed, same seed gives same samples
+     */
+    public SyntheticAudioSource(int sampleRate, double[] carrierFrequencies, double carrierAmplitude,
+                                double noiseAmplitude, boolean realTime, long seed) {
+        if(carrierAmplitude + noiseAmplitude > 1) {
+            throw new IllegalArgumentException("Amplitudes must sum up to at most 1");
+        }
+        if(carrierFrequencies.length == 0) {
+            throw new IllegalArgumentException("At least one carrier is needed");
+        }
+        this.sampleRate = sampleRate;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.carrierFrequencies = carrierFrequencies.clone();
+        this.carrierAmplitude = carrierAmplitude / carrierFrequencies.length;
+        carrierPhases = new double[carrierFrequencies.length];
+        reflectionPhases = new double[carrierFrequencies.length];
+        this.noiseAmplitude = noiseAmplitude;
+        this.realTime = realTime;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Simulates hand moving in front of the device. Every carrier is reflected, shifted
+     * proportionally to its frequency.
+     *
+     * @param shift frequency shift of the first carrier in Hz, positive when moving towards,
+     *              negative when moving away
+     * @param amplitude reflection amplitude of every carrier, 0 for no movement
+     */
+    public void setReflection(double shift, double amplitude) {
+        reflectionShift = shift;
+        reflectionAmplitude = amplitude;
+    }
+
+    /**
+     * Adds a tone not coming from the device, e.g. another ultrasonic source jamming a carrier.
+     *
+     * @param frequency tone frequency in Hz
+     * @param amplitude tone amplitude, 0 for none
+     */
+    public void setInterference(double frequency, double amplitude) {
+        interferenceFrequency = frequency;
+        interferenceAmplitude = amplitude;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return 1;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void start() {
+        nextSampleNanos = System.nanoTime();
+        running = true;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if(!running) {
+            return -1;
+        }
+        if(realTime) {
+            long waitNanos = nextSampleNanos - System.nanoTime();
+            if(waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            nextSampleNanos += length * 1000000000L / sampleRate;
+        }
+
+        int carriers = carrierFrequencies.length;
+        double shiftRatio = 1 + reflectionShift / carrierFrequencies[0];
+        double reflection = reflectionAmplitude;
+        double interference = interferenceAmplitude;
+        double interferenceStep = interferenceFrequency / sampleRate;
+        for(int i = 0; i < length; ++i) {
+            double value = 0;
+            for(int c = 0; c < carriers; ++c) {
+                value += carrierAmplitude * Math.sin(2 * Math.PI * carrierPhases[c]);
+                carrierPhases[c] = wrap(carrierPhases[c] + carrierFrequencies[c] / sampleRate);
+                if(reflection != 0) {
+                    value += reflection * Math.sin(2 * Math.PI * reflectionPhases[c]);
+                }
+                reflectionPhases[c] = wrap(reflectionPhases[c] + carrierFrequencies[c] * shiftRatio / sampleRate);
+            }
+            if(interference != 0) {
+                value += interference * Math.sin(2 * Math.PI * interferencePhase);
+                interferencePhase = wrap(interferencePhase + interferenceStep);
+            }
+            if(noiseAmplitude != 0) {
+                value += noiseAmplitude * (2 * random.nextDouble() - 1);
+            }
+            value = Math.max(-1, Math.min(1, value));
+            buffer[offset + i] = (short) (value * Short.MAX_VALUE);
+        }
+        return length;
+    }
+
+    /** Returns fractional part of a phase in cycles. */
+    private static double wrap(double phase) {
+        return phase - Math.floor(phase);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void release() {
+        running = false;
+    }
+}
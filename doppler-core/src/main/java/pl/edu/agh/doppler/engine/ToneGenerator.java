@@ -0,0 +1,158 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Arrays;
+
+/**
+ * Synthesizes mixed tones as 16 bit pcm, one buffer at a time, for {@link AudioSink}s.
+ * <p>
+ * Every tone is a phase accumulator reading a one period sine table. Its phase carries over
+ * between buffers and over frequency changes, so the waveform never jumps and there is no splatter
+ * around the carrier. Frequencies may be changed from any thread, {@link #generate(short[], int, int)}
+ * picks them up with the next buffer at the latest.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Numerically_controlled_oscillator">Numerically controlled oscillator</a>
+ */
+public class ToneGenerator {
+
+    /** Log2 of the sine table size. Linear interpolation keeps the error below 16 bit resolution. */
+    private static final int TABLE_BITS = 10;
+
+    /** Phase bits below the table index, a full period of the phase is 2^32. */
+    private static final int FRACTION_BITS = 32 - TABLE_BITS;
+
+    private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+
+    private static final float FRACTION_SCALE = 1.0f / (1 << FRACTION_BITS);
+
+    /** One period of a sine, first value repeated at the end for the interpolation. */
+    private static final float[] SINE = new float[(1 << TABLE_BITS) + 1];
+
+    static {
+        for(int i = 0; i < SINE.length; ++i) {
+            SINE[i] = (float) Math.sin(2 * Math.PI * i / (1 << TABLE_BITS));
+        }
+    }
+
+    private final int sampleRate;
+
+    /** Generated tones, replaced by {@link #setFrequencies(double...)} when their number changes. */
+    private volatile Tones tones;
+
+    /** Phase of every generated tone, a full period is 2^32. Only used by the generating thread. */
+    private int[] phases = new int[0];
+
+    /** Amplitude of every tone in the last generated sample. Only used by the generating thread. */
+    private float gain;
+
+    /**
+     * @param sampleRate sample rate of generated samples
+     * @param frequencies frequencies of tones in Hz
+     */
+    public ToneGenerator(int sampleRate, double... frequencies) {
+        if(sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        this.sampleRate = sampleRate;
+        setFrequencies(frequencies);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets tone frequencies. Tones kept by index continue at new frequencies from their current
+     * phase, new ones start at zero phase. Retuning the same number of tones allocates nothing.
+     *
+     * @param frequencies frequencies of tones in Hz
+     */
+    public void setFrequencies(double... frequencies) {
+        if(frequencies.length == 0) {
+            throw new IllegalArgumentException("At least one tone frequency is needed");
+        }
+        Tones current = tones;
+        if(current != null && current.increments.length == frequencies.length) {
+            //a tone retuned in the middle of a buffer still goes on from its phase
+            for(int t = 0; t < frequencies.length; ++t) {
+                current.increments[t] = increment(frequencies[t]);
+            }
+            //publishes the increments to the generating thread
+            tones = current;
+            return;
+        }
+        int[] increments = new int[frequencies.length];
+        for(int t = 0; t < frequencies.length; ++t) {
+            increments[t] = increment(frequencies[t]);
+        }
+        tones = new Tones(increments, (float) Short.MAX_VALUE / frequencies.length);
+    }
+
+    /** Returns fraction of a period per sample, scaled to 2^32. Wraps like the phase does. */
+    private int increment(double frequency) {
+        return (int) Math.round(frequency / sampleRate * 4294967296.0);
+    }
+
+    /** Returns frequencies of tones as generated, rounded to the phase resolution. */
+    public double[] getFrequencies() {
+        int[] increments = tones.increments;
+        double[] frequencies = new double[increments.length];
+        for(int t = 0; t < increments.length; ++t) {
+            frequencies[t] = (increments[t] & 0xffffffffL) * (double) sampleRate / 4294967296.0;
+        }
+        return frequencies;
+    }
+
+    /** Returns phase of given tone before the next generated sample, a full period is 2^32. */
+    public int getPhase(int tone) {
+        return phases[tone];
+    }
+
+    /**
+     * Generates next samples of the tones. Every tone gets the same share of the amplitude. When
+     * the number of tones changes the amplitude moves to the new share over the generated samples,
+     * so the first buffer fades in from silence.
+     *
+     * @param buffer buffer receiving samples
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    public void generate(short[] buffer, int offset, int length) {
+        Tones tones = this.tones;
+        int[] increments = tones.increments;
+        if(phases.length != increments.length) {
+            //tones kept by index keep their phase, new ones start at zero
+            phases = Arrays.copyOf(phases, increments.length);
+        }
+        float start = gain;
+        float step = (tones.gain - start) / length;
+        for(int i = 0; i < length; ++i) {
+            float value = 0;
+            for(int t = 0; t < increments.length; ++t) {
+                int phase = phases[t];
+                int index = phase >>> FRACTION_BITS;
+                float fraction = (phase & FRACTION_MASK) * FRACTION_SCALE;
+                float low = SINE[index];
+                value += low + (SINE[index + 1] - low) * fraction;
+                phases[t] = phase + increments[t];
+            }
+            //scale to max amplitude, clamped while the share of added tones fades in
+            value *= start + step * (i + 1);
+            buffer[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+        gain = tones.gain;
+    }
+
+    /** Phase increments of tones and their amplitude. Only the increments are ever modified. */
+    private static final class Tones {
+
+        /** Written in place by {@link #setFrequencies(double...)}, each int atomically. */
+        final int[] increments;
+
+        final float gain;
+
+        Tones(int[] increments, float gain) {
+            this.increments = increments;
+            this.gain = gain;
+        }
+    }
+}
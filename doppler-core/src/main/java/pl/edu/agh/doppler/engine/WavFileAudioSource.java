@@ -0,0 +1,185 @@
+package pl.edu.agh.doppler.engine;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16 bit PCM samples from a WAV file, e.g. a recorded session, so detection can run without
+ * a microphone. Only uncompressed 16 bit little endian data is supported.
+ */
+public class WavFileAudioSource implements AudioSource {
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final InputStream input;
+
+    private final int sampleRate;
+
+    private final int channelCount;
+
+    private final int bufferSize;
+
+    /** Bytes of sample data not read yet. */
+    private long bytesLeft;
+
+    /** Raw little endian bytes, reused by every read. */
+    private final byte[] bytes;
+
+    /**
+     * Opens WAV file.
+     *
+     * @throws IOException when file can't be read or isn't a 16 bit PCM WAV
+     */
+    public WavFileAudioSource(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * Reads WAV header from given stream. Stream is positioned at the first sample afterwards
+     * and closed by {@link #release()}.
+     *
+     * @throws IOException when stream can't be read or doesn't hold a 16 bit PCM WAV
+     */
+    public WavFileAudioSource(InputStream input) throws IOException {
+        this.input = input instanceof BufferedInputStream ? input : new BufferedInputStream(input);
+        bytes = new byte[2 * DEFAULT_BUFFER_SIZE];
+
+        if(readTag() != tag("RIFF")) {
+            throw new IOException("Not a RIFF file");
+        }
+        readIntLE();
+        if(readTag() != tag("WAVE")) {
+            throw new IOException("Not a WAVE file");
+        }
+
+        int rate = 0;
+        int channels = 0;
+        //chunks can come in any order, fmt has to precede data
+        while(true) {
+            int chunk = readTag();
+            long chunkSize = readIntLE() & 0xffffffffL;
+            if(chunk == tag("fmt ")) {
+                int format = readShortLE();
+                channels = readShortLE();
+                rate = readIntLE();
+                readIntLE(); //byte rate
+                readShortLE(); //block align
+                int bitsPerSample = readShortLE();
+                if(format != 1 || bitsPerSample != 16) {
+                    throw new IOException("Only 16 bit PCM is supported, format:" + format + " bits:" + bitsPerSample);
+                }
+                skipFully(chunkSize - 16 + (chunkSize & 1));
+            } else if(chunk == tag("data")) {
+                if(rate == 0) {
+                    throw new IOException("Data chunk before fmt chunk");
+                }
+                bytesLeft = chunkSize;
+                break;
+            } else {
+                skipFully(chunkSize + (chunkSize & 1));
+            }
+        }
+
+        sampleRate = rate;
+        channelCount = channels;
+        bufferSize = DEFAULT_BUFFER_SIZE;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if(bytesLeft < 2) {
+            return -1;
+        }
+        int count = (int) Math.min(Math.min(length, bytes.length / 2), bytesLeft / 2);
+        try {
+            readFully(bytes, 2 * count);
+        } catch(IOException e) {
+            bytesLeft = 0;
+            return -1;
+        }
+        bytesLeft -= 2 * count;
+        for(int i = 0; i < count; ++i) {
+            //in 16 bit pcm, first byte is low order byte
+            buffer[offset + i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+        }
+        return count;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+        try {
+            input.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int tag(String name) {
+        return name.charAt(0) | name.charAt(1) << 8 | name.charAt(2) << 16 | name.charAt(3) << 24;
+    }
+
+    private int readTag() throws IOException {
+        return readIntLE();
+    }
+
+    private int readIntLE() throws IOException {
+        readFully(bytes, 4);
+        return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 24;
+    }
+
+    private int readShortLE() throws IOException {
+        readFully(bytes, 2);
+        return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8;
+    }
+
+    private void readFully(byte[] dst, int length) throws IOException {
+        int done = 0;
+        while(done < length) {
+            int count = input.read(dst, done, length - done);
+            if(count < 0) {
+                throw new EOFException();
+            }
+            done += count;
+        }
+    }
+
+    private void skipFully(long length) throws IOException {
+        while(length > 0) {
+            long skipped = input.skip(length);
+            if(skipped <= 0) {
+                if(input.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
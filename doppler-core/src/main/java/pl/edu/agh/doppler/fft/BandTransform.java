@@ -0,0 +1,127 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * Base class for transforms that only compute bands <code>firstBand</code> to
+ * <code>lastBand</code> of the spectrum. Bands are indexed exactly like in
+ * {@link FFT} and bands outside of the range are always zero, also in the
+ * averages.
+ */
+abstract class BandTransform extends FourierTransform
+{
+    protected final int firstBand;
+    protected final int lastBand;
+
+    BandTransform(int timeSize, float sampleRate, int firstBand, int lastBand)
+    {
+        super(timeSize, sampleRate);
+        this.firstBand = Math.max(0, firstBand);
+        this.lastBand = Math.min(timeSize / 2, lastBand);
+        if (this.firstBand > this.lastBand)
+            throw new IllegalArgumentException(
+                    getClass().getSimpleName() + ": band range is empty.");
+    }
+
+    protected void allocateArrays()
+    {
+        spectrum = new float[timeSize / 2 + 1];
+        real = new float[timeSize];
+        imag = new float[timeSize];
+    }
+
+    /** Returns the first analyzed band. */
+    public int firstBand()
+    {
+        return firstBand;
+    }
+
+    /** Returns the last analyzed band. */
+    public int lastBand()
+    {
+        return lastBand;
+    }
+
+    public void setBand(int i, float a)
+    {
+        if (a < 0)
+        {
+            return;
+        }
+        float current = band(i);
+        if (real[i] == 0 && imag[i] == 0)
+        {
+            real[i] = powerSpectrum ? (float) Math.sqrt(a) : a;
+        }
+        else if (powerSpectrum)
+        {
+            float gain = (float) Math.sqrt(a / current);
+            real[i] *= gain;
+            imag[i] *= gain;
+        }
+        else
+        {
+            real[i] /= current;
+            imag[i] /= current;
+            real[i] *= a;
+            imag[i] *= a;
+        }
+        storeBand(i, a);
+        mirror(i);
+    }
+
+    public void scaleBand(int i, float s)
+    {
+        if (s < 0)
+        {
+            return;
+        }
+
+        float current = band(i);
+        real[i] *= s;
+        imag[i] *= s;
+        storeBand(i, current * (powerSpectrum ? s * s : s));
+        mirror(i);
+    }
+
+    // sets band k to re + i * im and keeps the spectrum conjugate symmetric.
+    // its amplitude is computed when read, after fillSpectrum() ends the transform.
+    protected void setComplexBand(int k, float re, float im)
+    {
+        real[k] = re;
+        imag[k] = im;
+        mirror(k);
+    }
+
+    private void mirror(int k)
+    {
+        if (k != 0 && k != timeSize / 2)
+        {
+            real[timeSize - k] = real[k];
+            imag[timeSize - k] = -imag[k];
+        }
+    }
+
+    /**
+     * Performs an inverse transform of the analyzed bands. Everything outside of
+     * the band range is treated as zero, so the result is the band limited part of
+     * the signal.
+     */
+    public void inverse(float[] buffer)
+    {
+        if (buffer.length > real.length)
+        {
+            return;
+        }
+        for (int n = 0; n < buffer.length; n++)
+        {
+            double sum = 0;
+            for (int k = firstBand; k <= lastBand; k++)
+            {
+                double w = 2.0 * Math.PI * k * n / timeSize;
+                double v = real[k] * Math.cos(w) - imag[k] * Math.sin(w);
+                // bands other than dc and nyquist also stand for their mirror image
+                sum += (k == 0 || k == timeSize / 2) ? v : 2 * v;
+            }
+            buffer[n] = (float) (sum / timeSize);
+        }
+    }
+}
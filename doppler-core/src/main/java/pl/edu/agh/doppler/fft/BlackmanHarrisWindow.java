@@ -0,0 +1,15 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * Four term Blackman-Harris window. Coherent gain 0.36, side lobes below -92 dB,
+ * at the cost of a main lobe twice as wide as the Hann one.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Window_function#Blackman.E2.80.93Harris_window">Blackman-Harris window</a>
+ */
+public class BlackmanHarrisWindow extends CosineSumWindow
+{
+    public BlackmanHarrisWindow()
+    {
+        super(0.35875, 0.48829, 0.14128, 0.01168);
+    }
+}
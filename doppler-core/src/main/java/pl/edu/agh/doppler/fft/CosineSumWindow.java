@@ -0,0 +1,33 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * A window that is a sum of cosines,
+ * <code>w[n] = a0 - a1*cos(2*pi*n/N) + a2*cos(4*pi*n/N) - a3*cos(6*pi*n/N)</code>.
+ */
+public abstract class CosineSumWindow extends WindowFunction
+{
+    private final double[] terms;
+
+    protected CosineSumWindow(double... terms)
+    {
+        this.terms = terms;
+    }
+
+    @Override
+    protected double value(int index, int length)
+    {
+        double value = 0;
+        for (int m = 0; m < terms.length; m++)
+        {
+            double term = terms[m] * Math.cos(2 * Math.PI * m * index / length);
+            value += (m % 2 == 0) ? term : -term;
+        }
+        return value;
+    }
+
+    @Override
+    public double[] cosineTerms()
+    {
+        return terms.clone();
+    }
+}
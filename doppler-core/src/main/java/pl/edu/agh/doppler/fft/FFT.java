@@ -57,8 +57,8 @@ public class FFT extends FourierTransform
         if ((timeSize & (timeSize - 1)) != 0)
             throw new IllegalArgumentException(
                     "FFT: timeSize must be a power of two.");
-        buildReverseTable();
-        buildTrigTables();
+        plan = FFTPlan.forSize(timeSize);
+        reverse = plan.reverse;
     }
 
     protected void allocateArrays()
@@ -76,9 +76,10 @@ public class FFT extends FourierTransform
             return;
         }
 
+        float current = band(i);
         real[i] *= s;
         imag[i] *= s;
-        spectrum[i] *= s;
+        storeBand(i, current * (powerSpectrum ? s * s : s));
 
         if (i != 0 && i != timeSize / 2)
         {
@@ -94,19 +95,25 @@ public class FFT extends FourierTransform
             // Minim.error("Can't set a frequency band to a negative value.");
             return;
         }
+        float current = band(i);
         if (real[i] == 0 && imag[i] == 0)
         {
-            real[i] = a;
-            spectrum[i] = a;
+            real[i] = powerSpectrum ? (float) Math.sqrt(a) : a;
+        }
+        else if (powerSpectrum)
+        {
+            float gain = (float) Math.sqrt(a / current);
+            real[i] *= gain;
+            imag[i] *= gain;
         }
         else
         {
-            real[i] /= spectrum[i];
-            imag[i] /= spectrum[i];
-            spectrum[i] = a;
-            real[i] *= spectrum[i];
-            imag[i] *= spectrum[i];
+            real[i] /= current;
+            imag[i] /= current;
+            real[i] *= a;
+            imag[i] *= a;
         }
+        storeBand(i, a);
         if (i != 0 && i != timeSize / 2)
         {
             real[timeSize - i] = real[i];
@@ -118,21 +125,30 @@ public class FFT extends FourierTransform
     // bit reversing is not necessary as the data will already be bit reversed
     private void fft()
     {
-        for (int halfSize = 1; halfSize < real.length; halfSize *= 2)
+        fft(real.length);
+    }
+
+    // performs an in-place fft on the first n values of the real and imag arrays.
+    // n is a power of two not greater than timeSize. subclasses may replace the
+    // butterfly kernel, the input is always in radix-2 bit reversed order.
+    protected void fft(int n)
+    {
+        for (int halfSize = 1; halfSize < n; halfSize *= 2)
         {
             // float k = -(float)Math.PI/halfSize;
             // phase shift step
             // float phaseShiftStepR = (float)Math.cos(k);
             // float phaseShiftStepI = (float)Math.sin(k);
-            // using lookup table
-            float phaseShiftStepR = cos(halfSize);
-            float phaseShiftStepI = sin(halfSize);
+            // using the plan's twiddles, e^(-pi*i/halfSize)
+            int step = timeSize / (2 * halfSize);
+            float phaseShiftStepR = plan.twiddleReal[step];
+            float phaseShiftStepI = plan.twiddleImag[step];
             // current phase shift
             float currentPhaseShiftR = 1.0f;
             float currentPhaseShiftI = 0.0f;
             for (int fftStep = 0; fftStep < halfSize; fftStep++)
             {
-                for (int i = fftStep; i < real.length; i += 2 * halfSize)
+                for (int i = fftStep; i < n; i += 2 * halfSize)
                 {
                     int off = i + halfSize;
                     float tr = (currentPhaseShiftR * real[off]) - (currentPhaseShiftI * imag[off]);
@@ -157,12 +173,7 @@ public class FFT extends FourierTransform
             return;
         }
         //  doWindow(buffer);
-        // copy samples to real/imag in bit-reversed order
-        bitReverseSamples(buffer, 0);
-        // perform the fft
-        fft();
-        // fill the spectrum buffer with amplitudes
-        fillSpectrum();
+        forwardReal(buffer, 0);
     }
 
     @Override
@@ -178,11 +189,104 @@ public class FFT extends FourierTransform
         }
 
         //   windowFunction.apply( buffer, startAt, timeSize );
-        bitReverseSamples(buffer, startAt);
-        fft();
+        forwardReal(buffer, startAt);
+    }
+
+    // transforms timeSize real samples starting at startAt. the samples are packed
+    // as timeSize/2 complex values (even samples in real, odd samples in imag),
+    // transformed with a half size fft and then split into the spectrum of the
+    // original real signal, which costs roughly half of the full complex transform.
+    private void forwardReal(float[] samples, int startAt)
+    {
+        mirrorPending = false;
+        if (timeSize < 4)
+        {
+            // too small to split, fall back to the complex transform
+            bitReverseSamples(samples, startAt);
+            fft();
+        }
+        else
+        {
+            bitReversePairs(samples, startAt);
+            fft(timeSize / 2);
+            splitRealSpectrum();
+        }
         fillSpectrum();
     }
 
+    // turns the half size transform Z held in the first timeSize/2 values of real
+    // and imag into the full transform X of the real signal:
+    // X[k] = (Z[k] + conj(Z[n-k])) / 2 - i * W^k * (Z[k] - conj(Z[n-k])) / 2
+    // where n = timeSize/2 and W = e^(-2*pi*i/timeSize).
+    // bins k and n-k depend on the same pair of values, so both are computed at once.
+    private void splitRealSpectrum()
+    {
+        int n = timeSize / 2;
+
+        float r0 = real[0];
+        float i0 = imag[0];
+        real[0] = r0 + i0;
+        imag[0] = 0.0f;
+        real[n] = r0 - i0;
+        imag[n] = 0.0f;
+
+        for (int k = 1; k <= n / 2; k++)
+        {
+            int m = n - k;
+            float zr = real[k];
+            float zi = imag[k];
+            float mr = real[m];
+            float mi = imag[m];
+
+            // even and odd sample spectra, shared by bins k and n-k
+            float er = 0.5f * (zr + mr);
+            float ei = 0.5f * (zi - mi);
+            float or = 0.5f * (zi + mi);
+            float oi = 0.5f * (mr - zr);
+
+            float c = plan.twiddleReal[k];
+            float s = -plan.twiddleImag[k];
+            real[k] = er + c * or + s * oi;
+            imag[k] = ei + c * oi - s * or;
+
+            // W^(n-k) = -conj(W^k)
+            real[m] = er - c * or - s * oi;
+            imag[m] = -ei + c * oi - s * or;
+        }
+
+        // the spectrum of a real signal is conjugate symmetric, the upper half is
+        // only filled in when it is read
+        mirrorPending = true;
+    }
+
+    // fills in the upper half of real and imag after a real input transform
+    private void mirror()
+    {
+        if (mirrorPending)
+        {
+            for (int k = 1; k < timeSize / 2; k++)
+            {
+                real[timeSize - k] = real[k];
+                imag[timeSize - k] = -imag[k];
+            }
+            mirrorPending = false;
+        }
+    }
+
+    @Override
+    public float[] getSpectrumReal()
+    {
+        mirror();
+        return real;
+    }
+
+    @Override
+    public float[] getSpectrumImaginary()
+    {
+        mirror();
+        return imag;
+    }
+
     /**
      * Performs a forward transform on the passed buffers.
      *
@@ -202,6 +306,14 @@ public class FFT extends FourierTransform
         fillSpectrum();
     }
 
+    @Override
+    protected void setComplex(float[] r, float[] i)
+    {
+        // the whole spectrum comes from the caller, the upper half must not be mirrored over it
+        mirrorPending = false;
+        super.setComplex(r, i);
+    }
+
     public void inverse(float[] buffer)
     {
         if (buffer.length > real.length)
@@ -209,6 +321,13 @@ public class FFT extends FourierTransform
             //   Minim.error("FFT.inverse: the passed array's length must equal FFT.timeSize().");
             return;
         }
+        mirror();
+        // the spectrum stays the one transformed, the last forward transform or the
+        // spectrum passed to inverse(float[], float[], float[])
+        for (int i = 0; i < spectrum.length; i++)
+        {
+            band(i);
+        }
         // conjugate
         for (int i = 0; i < timeSize; i++)
         {
@@ -223,19 +342,13 @@ public class FFT extends FourierTransform
         }
     }
 
-    private int[] reverse;
+    /** Shared tables of this transform size. */
+    protected final FFTPlan plan;
 
-    private void buildReverseTable()
-    {
-        int N = timeSize;
-        reverse = new int[N];
-
-        // set up the bit reversing table
-        reverse[0] = 0;
-        for (int limit = 1, bit = N / 2; limit < N; limit <<= 1, bit >>= 1)
-            for (int i = 0; i < limit; i++)
-                reverse[i + limit] = reverse[i] + bit;
-    }
+    private final int[] reverse;
+
+    /** Whether the upper half of real and imag still has to be mirrored from the lower half. */
+    private boolean mirrorPending;
 
     // copies the values in the samples array into the real array
     // in bit reversed order. the imag array is filled with zeros.
@@ -248,44 +361,35 @@ public class FFT extends FourierTransform
         }
     }
 
-    // bit reverse real[] and imag[]
-    private void bitReverseComplex()
+    // copies the values in the samples array into real and imag as complex pairs,
+    // even samples into real and odd samples into imag, in the bit reversed order
+    // of a timeSize/2 transform. reversing i over one bit less is reverse[2 * i].
+    private void bitReversePairs(float[] samples, int startAt)
     {
-        float[] revReal = new float[real.length];
-        float[] revImag = new float[imag.length];
-        for (int i = 0; i < real.length; i++)
+        for (int i = 0; i < timeSize / 2; ++i)
         {
-            revReal[i] = real[reverse[i]];
-            revImag[i] = imag[reverse[i]];
+            int j = startAt + 2 * reverse[2 * i];
+            real[i] = samples[j];
+            imag[i] = samples[j + 1];
         }
-        real = revReal;
-        imag = revImag;
-    }
-
-    // lookup tables
-
-    private float[] sinlookup;
-    private float[] coslookup;
-
-    private float sin(int i)
-    {
-        return sinlookup[i];
-    }
-
-    private float cos(int i)
-    {
-        return coslookup[i];
     }
 
-    private void buildTrigTables()
+    // bit reverse real[] and imag[] in place. bit reversal is its own inverse,
+    // so swapping every pair once is enough.
+    private void bitReverseComplex()
     {
-        int N = timeSize;
-        sinlookup = new float[N];
-        coslookup = new float[N];
-        for (int i = 0; i < N; i++)
+        for (int i = 0; i < real.length; i++)
         {
-            sinlookup[i] = (float) Math.sin(-(float) Math.PI / i);
-            coslookup[i] = (float) Math.cos(-(float) Math.PI / i);
+            int j = reverse[i];
+            if (i < j)
+            {
+                float tmp = real[i];
+                real[i] = real[j];
+                real[j] = tmp;
+                tmp = imag[i];
+                imag[i] = imag[j];
+                imag[j] = tmp;
+            }
         }
     }
-}
\ No newline at end of file
+}
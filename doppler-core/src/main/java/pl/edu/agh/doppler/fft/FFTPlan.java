@@ -0,0 +1,78 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed tables of a power of two {@link FFT}: the bit reversal
+ * permutation and the twiddle factors. A plan depends only on the transform size,
+ * it is never modified after construction, so one plan is shared by all
+ * transforms of that size, on any thread.
+ */
+public final class FFTPlan
+{
+    private static final ConcurrentHashMap<Integer, FFTPlan> PLANS = new ConcurrentHashMap<Integer, FFTPlan>();
+
+    final int timeSize;
+
+    /** Bit reversed index of every index below timeSize. */
+    final int[] reverse;
+
+    /**
+     * Twiddle factors e^(-2*pi*i*k/timeSize) for k in 0..timeSize-1. Every pass
+     * of a smaller transform uses a strided subset of them.
+     */
+    final float[] twiddleReal;
+    final float[] twiddleImag;
+
+    private FFTPlan(int timeSize)
+    {
+        this.timeSize = timeSize;
+
+        reverse = new int[timeSize];
+        for (int limit = 1, bit = timeSize / 2; limit < timeSize; limit <<= 1, bit >>= 1)
+            for (int i = 0; i < limit; i++)
+                reverse[i + limit] = reverse[i] + bit;
+
+        twiddleReal = new float[timeSize];
+        twiddleImag = new float[timeSize];
+        for (int k = 0; k < timeSize; k++)
+        {
+            double angle = -2.0 * Math.PI * k / timeSize;
+            twiddleReal[k] = (float) Math.cos(angle);
+            twiddleImag[k] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * Returns the plan for transforms of <code>timeSize</code> samples, building
+     * it on first use.
+     *
+     * @param timeSize
+     *          the transform size, a power of two
+     * @return shared plan
+     */
+    public static FFTPlan forSize(int timeSize)
+    {
+        if (timeSize <= 0 || (timeSize & (timeSize - 1)) != 0)
+            throw new IllegalArgumentException(
+                    "FFTPlan: timeSize must be a power of two.");
+
+        FFTPlan plan = PLANS.get(timeSize);
+        if (plan == null)
+        {
+            plan = new FFTPlan(timeSize);
+            FFTPlan existing = PLANS.putIfAbsent(timeSize, plan);
+            if (existing != null)
+            {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /** Returns the transform size of this plan. */
+    public int timeSize()
+    {
+        return timeSize;
+    }
+}
@@ -0,0 +1,282 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-point FFT of 16-bit samples, for devices with a slow or missing FPU. The
+ * samples are windowed and transformed in integers, floats are only used for the
+ * bands between <code>firstBand</code> and <code>lastBand</code> at the end.
+ * <p>
+ * Samples and window are Q15 values (1.0 is 2^15), so a windowed sample is their
+ * exact 32-bit product. Like in {@link FFT} the <code>timeSize</code> real samples
+ * are packed into <code>timeSize/2</code> complex values, transformed with radix-2
+ * butterflies and split into the spectrum of the real signal. Twiddles are Q30
+ * values multiplied in 64 bits. Butterflies would overflow 32 bits, so the transform
+ * uses <a href="http://www.ti.com/lit/an/spra948/spra948.pdf">block floating point</a>:
+ * before a pass whose input could overflow the whole block is halved and a shared
+ * exponent is incremented, so loud and quiet frames are equally precise. Every halving
+ * drops low bits and the window is rounded to Q15: against a double precision DFT, bands
+ * of 2048 and 4096 sample frames are off by about 2e-5 of the loudest band, several
+ * times the error of a float {@link FFT}.
+ * <p>
+ * Bands are indexed and scaled exactly like in {@link FFT} for samples divided by
+ * {@link Short#MAX_VALUE}, so <code>getBand()</code> can be compared with a float
+ * transform of the same frame. Bands outside of the analyzed range are always zero.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Q_(number_format)">Q number format</a>
+ */
+public class FixedPointFFT extends BandTransform
+{
+    /** 1.0 in Q15. */
+    private static final int ONE = 1 << 15;
+
+    /** 1.0 in Q30. */
+    private static final int TWIDDLE_ONE = 1 << 30;
+
+    /** Values of a pass input are kept below this, so that outputs fit in an int. */
+    private static final int HEADROOM = 1 << 29;
+
+    /** Band value of a windowed sample of 1.0 in the transformed block. */
+    private static final float FULL_SCALE = (float) Short.MAX_VALUE * ONE;
+
+    private final FFTPlan plan;
+
+    /** Q30 twiddles of the plan. */
+    private final int[] twiddleReal;
+    private final int[] twiddleImag;
+
+    /** Q15 window, all ones when there is no window. */
+    private final short[] window;
+
+    /** Packed windowed samples, then the half size transform, scaled by 2^exponent. */
+    private final int[] packedReal;
+    private final int[] packedImag;
+
+    /** Shared exponent of the block after the last transform. */
+    private int exponent;
+
+    /**
+     * Constructs a fixed-point FFT of buffers that are <code>timeSize</code> long,
+     * computing bands <code>firstBand</code> to <code>lastBand</code> (inclusive).
+     * <code>timeSize</code> <em>must</em> be a power of two, at least 4.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @param firstBand
+     *          the first band to compute
+     * @param lastBand
+     *          the last band to compute
+     * @param window
+     *          window applied to 16-bit samples by {@link #forward(short[], int, int)}, or null for none
+     */
+    public FixedPointFFT(int timeSize, float sampleRate, int firstBand, int lastBand, WindowFunction window)
+    {
+        super(timeSize, sampleRate, firstBand, lastBand);
+        if (timeSize < 4)
+            throw new IllegalArgumentException(
+                    "FixedPointFFT: timeSize must be at least 4.");
+        plan = FFTPlan.forSize(timeSize);
+
+        twiddleReal = new int[timeSize];
+        twiddleImag = new int[timeSize];
+        for (int k = 0; k < timeSize; k++)
+        {
+            double angle = -2.0 * Math.PI * k / timeSize;
+            twiddleReal[k] = (int) Math.round(Math.cos(angle) * TWIDDLE_ONE);
+            twiddleImag[k] = (int) Math.round(Math.sin(angle) * TWIDDLE_ONE);
+        }
+
+        float[] gains = new float[timeSize];
+        Arrays.fill(gains, 1.0f);
+        if (window != null)
+        {
+            window.apply(gains, 0, timeSize);
+        }
+        this.window = new short[timeSize];
+        for (int i = 0; i < timeSize; i++)
+        {
+            this.window[i] = toQ15(gains[i]);
+        }
+
+        packedReal = new int[timeSize / 2];
+        packedImag = new int[timeSize / 2];
+    }
+
+    // rounds to Q15, 1.0 becomes the largest Q15 value
+    private static short toQ15(float value)
+    {
+        int q = Math.round(value * ONE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    // scales a windowed sample like a product of a 16-bit sample and the window. clamping -32768 / 32767
+    // to -1 gives -32767 * 2^15, the product of -32768 and the Q15 one, so both inputs give the same block
+    private static int toBlock(float value)
+    {
+        float clamped = Math.max(-1.0f, Math.min(1.0f, value));
+        return Math.round(clamped * FULL_SCALE);
+    }
+
+    /** Returns the block exponent of the last transform, the number of times the block was halved. */
+    public int exponent()
+    {
+        return exponent;
+    }
+
+    /**
+     * Windows and transforms <code>timeSize</code> samples of one channel of
+     * interleaved 16-bit samples, as returned by the microphone.
+     *
+     * @param samples
+     *          buffer holding timeSize frames after offset
+     * @param offset
+     *          index of the first sample of the channel
+     * @param stride
+     *          number of interleaved channels
+     */
+    public void forward(short[] samples, int offset, int stride)
+    {
+        int[] reverse = plan.reverse;
+        int peak = 0;
+        // even samples into real, odd samples into imag, see FFT.bitReversePairs()
+        for (int i = 0; i < packedReal.length; i++)
+        {
+            int j = 2 * reverse[2 * i];
+            int re = samples[offset + j * stride] * window[j];
+            int im = samples[offset + (j + 1) * stride] * window[j + 1];
+            packedReal[i] = re;
+            packedImag[i] = im;
+            peak |= (re ^ (re >> 31)) | (im ^ (im >> 31));
+        }
+        transform(peak);
+    }
+
+    /**
+     * Transforms <code>timeSize</code> windowed samples between -1 and 1. The window
+     * given to the constructor is not applied.
+     */
+    public void forward(float[] buffer)
+    {
+        if (buffer.length != timeSize)
+        {
+            return;
+        }
+        forward(buffer, 0);
+    }
+
+    @Override
+    public void forward(float[] buffer, int startAt)
+    {
+        if (buffer.length - startAt < timeSize)
+        {
+            return;
+        }
+
+        int[] reverse = plan.reverse;
+        int peak = 0;
+        for (int i = 0; i < packedReal.length; i++)
+        {
+            int j = startAt + 2 * reverse[2 * i];
+            int re = toBlock(buffer[j]);
+            int im = toBlock(buffer[j + 1]);
+            packedReal[i] = re;
+            packedImag[i] = im;
+            peak |= (re ^ (re >> 31)) | (im ^ (im >> 31));
+        }
+        transform(peak);
+    }
+
+    // transforms the packed samples, peak bounds their magnitude
+    private void transform(int peak)
+    {
+        int n = packedReal.length;
+        exponent = 0;
+        for (int halfSize = 1; halfSize < n; halfSize *= 2)
+        {
+            int shift = 0;
+            while ((peak >> shift) >= HEADROOM)
+            {
+                shift++;
+            }
+            exponent += shift;
+            peak = pass(n, halfSize, shift);
+        }
+        splitBands();
+    }
+
+    // one radix-2 pass, the input is scaled down by 2^shift while it is read.
+    // returns a bound of the magnitude of the output.
+    private int pass(int n, int halfSize, int shift)
+    {
+        int[] re = packedReal;
+        int[] im = packedImag;
+        int round = shift > 0 ? 1 << (shift - 1) : 0;
+        int step = timeSize / (2 * halfSize);
+        int peak = 0;
+        for (int j = 0; j < halfSize; j++)
+        {
+            // e^(-pi*i*j/halfSize)
+            long wr = twiddleReal[j * step];
+            long wi = twiddleImag[j * step];
+            for (int i = j; i < n; i += 2 * halfSize)
+            {
+                int off = i + halfSize;
+                int ar = (re[i] + round) >> shift;
+                int ai = (im[i] + round) >> shift;
+                int br = (re[off] + round) >> shift;
+                int bi = (im[off] + round) >> shift;
+                int tr = (int) ((wr * br - wi * bi + TWIDDLE_ONE / 2) >> 30);
+                int ti = (int) ((wr * bi + wi * br + TWIDDLE_ONE / 2) >> 30);
+
+                int v = ar - tr;
+                re[off] = v;
+                peak |= v ^ (v >> 31);
+                v = ai - ti;
+                im[off] = v;
+                peak |= v ^ (v >> 31);
+                v = ar + tr;
+                re[i] = v;
+                peak |= v ^ (v >> 31);
+                v = ai + ti;
+                im[i] = v;
+                peak |= v ^ (v >> 31);
+            }
+        }
+        return peak;
+    }
+
+    // splits the analyzed bands out of the half size transform, see FFT.splitRealSpectrum()
+    private void splitBands()
+    {
+        int n = packedReal.length;
+        float scale = (float) Math.scalb(1.0, exponent) / FULL_SCALE;
+        for (int k = firstBand; k <= lastBand; k++)
+        {
+            if (k == 0 || k == n)
+            {
+                // both may be near the int limits, their sum doesn't fit in an int
+                float r0 = packedReal[0];
+                float i0 = packedImag[0];
+                setComplexBand(k, (k == 0 ? r0 + i0 : r0 - i0) * scale, 0.0f);
+                continue;
+            }
+            int m = n - k;
+            float zr = packedReal[k];
+            float zi = packedImag[k];
+            float mr = packedReal[m];
+            float mi = packedImag[m];
+
+            float er = 0.5f * (zr + mr);
+            float ei = 0.5f * (zi - mi);
+            float or = 0.5f * (zi + mi);
+            float oi = 0.5f * (mr - zr);
+
+            float c = plan.twiddleReal[k];
+            float s = -plan.twiddleImag[k];
+            setComplexBand(k, (er + c * or + s * oi) * scale, (ei + c * oi - s * or) * scale);
+        }
+        fillSpectrum();
+    }
+}
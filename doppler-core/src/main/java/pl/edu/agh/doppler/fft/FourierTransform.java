@@ -157,6 +157,18 @@ public abstract class FourierTransform
     protected int whichAverage;
     protected int octaves;
     protected int avgPerOctave;
+    protected boolean powerSpectrum;
+
+    /**
+     * Number of the current transform. Bands and averages are computed on first
+     * read and are stale when computed in an older transform.
+     */
+    private int generation = 1;
+    private int[] bandGeneration;
+
+    /** Like generation for averages, also incremented when a band is set. */
+    private int averagesVersion = 1;
+    private int[] averageVersion;
 
     /**
      * Construct a FourierTransform that will analyze sample buffers that are
@@ -175,6 +187,7 @@ public abstract class FourierTransform
         bandWidth = (2f / timeSize) * ((float)sampleRate / 2f);
         noAverages();
         allocateArrays();
+        bandGeneration = new int[spectrum.length];
     }
 
     // allocating real, imag, and spectrum are the responsibility of derived
@@ -192,66 +205,96 @@ public abstract class FourierTransform
         {
             System.arraycopy(r, 0, real, 0, r.length);
             System.arraycopy(i, 0, imag, 0, i.length);
+            // bands read before come from the previous transform
+            fillSpectrum();
         }
     }
 
-    // fill the spectrum array with the amps of the data in real and imag
-    // used so that this class can handle creating the average array
-    // and also do spectrum shaping if necessary
+    // called after real and imag were changed by a transform. bands and averages
+    // are not computed here, only the ones that are read are computed later from
+    // real and imag, see band() and average(). a caller reading a few bands doesn't
+    // pay a square root for every band of the spectrum.
     protected void fillSpectrum()
     {
-        for (int i = 0; i < spectrum.length; i++)
+        generation++;
+        averagesVersion++;
+    }
+
+    // returns the amplitude of band i, computing it from real and imag when it
+    // wasn't computed since the last transform
+    protected final float band(int i)
+    {
+        if (bandGeneration[i] != generation)
         {
-            spectrum[i] = (float) Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+            float power = real[i] * real[i] + imag[i] * imag[i];
+            spectrum[i] = powerSpectrum ? power : (float) Math.sqrt(power);
+            bandGeneration[i] = generation;
+        }
+        return spectrum[i];
+    }
+
+    // sets the amplitude of band i until the next transform
+    protected final void storeBand(int i, float a)
+    {
+        spectrum[i] = a;
+        bandGeneration[i] = generation;
+        // averages may include this band
+        averagesVersion++;
+    }
+
+    // returns average i, computing it from the bands it covers when it wasn't
+    // computed since the last transform
+    private float average(int i)
+    {
+        if (averageVersion[i] == averagesVersion)
+        {
+            return averages[i];
         }
 
         if (whichAverage == LINAVG)
         {
             int avgWidth = (int) spectrum.length / averages.length;
-            for (int i = 0; i < averages.length; i++)
+            float avg = 0;
+            int j;
+            for (j = 0; j < avgWidth; j++)
             {
-                float avg = 0;
-                int j;
-                for (j = 0; j < avgWidth; j++)
+                int offset = j + i * avgWidth;
+                if (offset < spectrum.length)
                 {
-                    int offset = j + i * avgWidth;
-                    if (offset < spectrum.length)
-                    {
-                        avg += spectrum[offset];
-                    }
-                    else
-                    {
-                        break;
-                    }
+                    avg += band(offset);
+                }
+                else
+                {
+                    break;
                 }
-                avg /= j + 1;
-                averages[i] = avg;
             }
+            avg /= j + 1;
+            averages[i] = avg;
         }
         else if (whichAverage == LOGAVG)
         {
-            for (int i = 0; i < octaves; i++)
+            int octave = i / avgPerOctave;
+            float lowFreq, hiFreq, freqStep;
+            if (octave == 0)
             {
-                float lowFreq, hiFreq, freqStep;
-                if (i == 0)
-                {
-                    lowFreq = 0;
-                }
-                else
-                {
-                    lowFreq = (sampleRate / 2) / (float) Math.pow(2, octaves - i);
-                }
-                hiFreq = (sampleRate / 2) / (float) Math.pow(2, octaves - i - 1);
-                freqStep = (hiFreq - lowFreq) / avgPerOctave;
-                float f = lowFreq;
-                for (int j = 0; j < avgPerOctave; j++)
-                {
-                    int offset = j + i * avgPerOctave;
-                    averages[offset] = calcAvg(f, f + freqStep);
-                    f += freqStep;
-                }
+                lowFreq = 0;
+            }
+            else
+            {
+                lowFreq = (sampleRate / 2) / (float) Math.pow(2, octaves - octave);
             }
+            hiFreq = (sampleRate / 2) / (float) Math.pow(2, octaves - octave - 1);
+            freqStep = (hiFreq - lowFreq) / avgPerOctave;
+            // stepped like the averages before it, so the bounds round the same way
+            float f = lowFreq;
+            for (int j = 0; j < i % avgPerOctave; j++)
+            {
+                f += freqStep;
+            }
+            averages[i] = calcAvg(f, f + freqStep);
         }
+        averageVersion[i] = averagesVersion;
+        return averages[i];
     }
 
     /**
@@ -261,6 +304,7 @@ public abstract class FourierTransform
     public void noAverages()
     {
         averages = new float[0];
+        averageVersion = new int[0];
         whichAverage = NOAVG;
     }
 
@@ -281,6 +325,7 @@ public abstract class FourierTransform
         else
         {
             averages = new float[numAvg];
+            averageVersion = new int[numAvg];
         }
         whichAverage = LINAVG;
     }
@@ -311,9 +356,40 @@ public abstract class FourierTransform
         }
         avgPerOctave = bandsPerOctave;
         averages = new float[octaves * bandsPerOctave];
+        averageVersion = new int[averages.length];
         whichAverage = LOGAVG;
     }
 
+    /**
+     * Sets whether the spectrum holds squared amplitudes (power) instead of
+     * amplitudes. Squared amplitudes don't need a square root per band, and
+     * comparisons of bands give the same result as long as thresholds are squared
+     * too. Affects <code>getBand()</code>, <code>setBand()</code>, the averages and
+     * every following transform.
+     *
+     * @param power
+     *          true for squared amplitudes, false for amplitudes (the default)
+     */
+    public void setPowerSpectrum(boolean power)
+    {
+        if (power != powerSpectrum)
+        {
+            powerSpectrum = power;
+            // bands computed so far are in the other unit
+            generation++;
+            averagesVersion++;
+        }
+    }
+
+    /**
+     * Tells whether the spectrum holds squared amplitudes, see
+     * {@link #setPowerSpectrum(boolean)}.
+     */
+    public boolean isPowerSpectrum()
+    {
+        return powerSpectrum;
+    }
+
     /**
      * Sets the window to use on the samples before taking the forward transform.
      * If an invalid window is asked for, an error will be reported and the
@@ -349,7 +425,8 @@ public abstract class FourierTransform
     }
 
     /**
-     * Returns the amplitude of the requested frequency band.
+     * Returns the amplitude of the requested frequency band, or its square when
+     * the spectrum holds power.
      *
      * @param i
      *          the index of a frequency band
@@ -359,7 +436,7 @@ public abstract class FourierTransform
     {
         if (i < 0) i = 0;
         if (i > spectrum.length - 1) i = spectrum.length - 1;
-        return spectrum[i];
+        return band(i);
     }
 
     /**
@@ -424,7 +501,7 @@ public abstract class FourierTransform
      * @param i
      *          the frequency band to modify
      * @param a
-     *          the new amplitude
+     *          the new amplitude, or its square when the spectrum holds power
      */
     public abstract void setBand(int i, float a);
 
@@ -592,7 +669,7 @@ public abstract class FourierTransform
     {
         float ret;
         if (averages.length > 0)
-            ret = averages[i];
+            ret = average(i);
         else
             ret = 0;
         return ret;
@@ -615,7 +692,7 @@ public abstract class FourierTransform
         float avg = 0;
         for (int i = lowBound; i <= hiBound; i++)
         {
-            avg += spectrum[i];
+            avg += band(i);
         }
         avg /= (hiBound - lowBound + 1);
         return avg;
@@ -686,7 +763,8 @@ public abstract class FourierTransform
 
     /**
      * Performs an inverse transform of the frequency spectrum represented by
-     * freqReal and freqImag and places the result in buffer.
+     * freqReal and freqImag and places the result in buffer. Bands read afterwards
+     * are the ones of the passed spectrum.
      *
      * @param freqReal
      *          the real part of the frequency spectrum
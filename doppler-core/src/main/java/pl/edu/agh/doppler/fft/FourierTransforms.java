@@ -0,0 +1,231 @@
+package pl.edu.agh.doppler.fft;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Factory methods for {@link FourierTransform} implementations.
+ */
+public final class FourierTransforms
+{
+    /** Butterfly kernels of the full spectrum transform. */
+    public enum Kernel
+    {
+        /** Radix-2 butterflies, see {@link FFT}. */
+        RADIX_2,
+
+        /** Radix-4 butterflies, see {@link Radix4FFT}. */
+        RADIX_4,
+
+        /**
+         * Butterflies on SIMD vectors, <code>VectorFFT</code> of the doppler-vector module.
+         * Only available on JVMs with the <code>jdk.incubator.vector</code> module, elsewhere
+         * {@link #RADIX_4} is used instead.
+         */
+        VECTOR
+    }
+
+    private static final String VECTOR_FFT = "pl.edu.agh.doppler.fft.VectorFFT";
+
+    /** Constructor of the vector kernel, null when it can't be used on this JVM. */
+    private static final Constructor<? extends FFT> VECTOR_CONSTRUCTOR = findVectorConstructor();
+
+    /**
+     * Kernel used when none is requested: {@link Kernel#VECTOR} when it is available,
+     * {@link Kernel#RADIX_4} otherwise.
+     */
+    public static final Kernel DEFAULT_KERNEL = VECTOR_CONSTRUCTOR != null ? Kernel.VECTOR : Kernel.RADIX_4;
+
+    private FourierTransforms()
+    {
+    }
+
+    /**
+     * Creates a full spectrum transform using {@link #DEFAULT_KERNEL}.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing, a power of two
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @return new transform
+     */
+    public static FFT create(int timeSize, float sampleRate)
+    {
+        return create(timeSize, sampleRate, DEFAULT_KERNEL);
+    }
+
+    /**
+     * Creates a full spectrum transform using given kernel. All kernels produce the
+     * same spectrum. {@link Kernel#VECTOR} falls back to {@link Kernel#RADIX_4} when
+     * it is not available, see {@link #isAvailable(Kernel)}.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing, a power of two
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @param kernel
+     *          butterfly kernel to use
+     * @return new transform
+     */
+    public static FFT create(int timeSize, float sampleRate, Kernel kernel)
+    {
+        switch (kernel)
+        {
+            case VECTOR:
+                if (VECTOR_CONSTRUCTOR != null)
+                {
+                    return createVector(timeSize, sampleRate);
+                }
+                return new Radix4FFT(timeSize, sampleRate);
+            case RADIX_4:
+                return new Radix4FFT(timeSize, sampleRate);
+            default:
+                return new FFT(timeSize, sampleRate);
+        }
+    }
+
+    /**
+     * Tells whether given kernel can be used on this JVM. Scalar kernels always can,
+     * {@link Kernel#VECTOR} needs the doppler-vector module on the classpath and
+     * <code>--add-modules jdk.incubator.vector</code>.
+     *
+     * @param kernel
+     *          butterfly kernel
+     * @return true when {@link #create(int, float, Kernel)} uses that kernel
+     */
+    public static boolean isAvailable(Kernel kernel)
+    {
+        return kernel != Kernel.VECTOR || VECTOR_CONSTRUCTOR != null;
+    }
+
+    private static FFT createVector(int timeSize, float sampleRate)
+    {
+        try
+        {
+            return VECTOR_CONSTRUCTOR.newInstance(timeSize, sampleRate);
+        }
+        catch (InvocationTargetException e)
+        {
+            // constructor failed, e.g. timeSize is not a power of two
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        catch (InstantiationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // loads the vector kernel and runs it once, so that a missing class or a missing
+    // jdk.incubator.vector module is found here and not on first use; Android has neither,
+    // so it is not probed there at all
+    private static Constructor<? extends FFT> findVectorConstructor()
+    {
+        if (isAndroid())
+        {
+            return null;
+        }
+        try
+        {
+            Constructor<? extends FFT> constructor =
+                    Class.forName(VECTOR_FFT).asSubclass(FFT.class).getConstructor(int.class, float.class);
+            constructor.newInstance(64, 64f).forward(new float[64]);
+            return constructor;
+        }
+        // ReflectiveOperationException is missing below Android API 19, so catch each one
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+        catch (InstantiationException e)
+        {
+            return null;
+        }
+        catch (IllegalAccessException e)
+        {
+            return null;
+        }
+        catch (InvocationTargetException e)
+        {
+            return null;
+        }
+        catch (LinkageError e)
+        {
+            return null;
+        }
+    }
+
+    private static boolean isAndroid()
+    {
+        String vm = System.getProperty("java.vm.name", "");
+        String vendor = System.getProperty("java.vendor", "");
+        return vm.contains("Dalvik") || vendor.contains("Android");
+    }
+
+    /**
+     * Creates a transform for callers that only read bands <code>firstBand</code>
+     * to <code>lastBand</code> (inclusive) of the spectrum. Bands outside of that
+     * range may or may not be computed.
+     * <p>
+     * A {@link GoertzelBank} costs about three flops per sample and band, while the
+     * real input radix-2 {@link FFT} costs about <code>2.5 * log2(timeSize / 2) + 11</code>
+     * flops per sample including the magnitude of every band. The cheaper one is
+     * returned.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @param firstBand
+     *          the first band the caller reads
+     * @param lastBand
+     *          the last band the caller reads
+     * @return transform computing at least the requested bands
+     */
+    public static FourierTransform forBands(int timeSize, float sampleRate, int firstBand, int lastBand)
+    {
+        int bands = Math.min(timeSize / 2, lastBand) - Math.max(0, firstBand) + 1;
+        int log2 = 31 - Integer.numberOfLeadingZeros(Math.max(1, timeSize / 2));
+        if (bands > 0 && 6 * bands < 5 * log2 + 22)
+        {
+            return new GoertzelBank(timeSize, sampleRate, firstBand, lastBand);
+        }
+        return create(timeSize, sampleRate);
+    }
+
+    /**
+     * Tells whether tracking <code>bands</code> bands with a {@link SlidingDFT} is
+     * cheaper than transforming a whole frame with an {@link FFT} every
+     * <code>hopSize</code> samples.
+     * <p>
+     * A sliding DFT band costs about eight flops per sample, twice that with the
+     * periodic recomputation from the history, while a frame costs the
+     * <code>(2.5 * log2(timeSize / 2) + 11) * timeSize</code> flops of the real
+     * input FFT.
+     *
+     * @param timeSize
+     *          the frame size
+     * @param hopSize
+     *          samples between two spectra
+     * @param bands
+     *          number of bands read from every spectrum
+     * @return true when the sliding transform is cheaper
+     */
+    public static boolean preferSlidingDft(int timeSize, int hopSize, int bands)
+    {
+        int log2 = 31 - Integer.numberOfLeadingZeros(Math.max(1, timeSize / 2));
+        return 32L * hopSize * bands < (5L * log2 + 22) * timeSize;
+    }
+}
@@ -0,0 +1,90 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * A band limited Fourier transform. Instead of transforming the whole buffer it
+ * runs one <a href="http://en.wikipedia.org/wiki/Goertzel_algorithm">Goertzel filter</a>
+ * per frequency band between <code>firstBand</code> and <code>lastBand</code>.
+ * Every filter costs one multiplication and two additions per sample, so when
+ * only a few bands are needed this is cheaper than a full FFT followed by a
+ * square root for every band of the spectrum.
+ * <p>
+ * Bands are indexed exactly like in {@link FFT}, so <code>getBand()</code>,
+ * <code>freqToIndex()</code> and <code>specSize()</code> can be used in the same
+ * way. Bands outside of the analyzed range are always zero, also in the
+ * averages.
+ *
+ * @see FourierTransforms#forBands(int, float, int, int)
+ */
+public class GoertzelBank extends BandTransform
+{
+    /** Goertzel coefficients (2cos(w)) of the analyzed bands. */
+    private final double[] coeff;
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Constructs a Goertzel bank that analyzes bands <code>firstBand</code> to
+     * <code>lastBand</code> (inclusive) of buffers that are <code>timeSize</code>
+     * long. Band indices are clamped to the spectrum.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @param firstBand
+     *          the first band to analyze
+     * @param lastBand
+     *          the last band to analyze
+     */
+    public GoertzelBank(int timeSize, float sampleRate, int firstBand, int lastBand)
+    {
+        super(timeSize, sampleRate, firstBand, lastBand);
+
+        int bands = this.lastBand - this.firstBand + 1;
+        coeff = new double[bands];
+        cos = new double[bands];
+        sin = new double[bands];
+        for (int b = 0; b < bands; b++)
+        {
+            double w = 2.0 * Math.PI * (this.firstBand + b) / timeSize;
+            cos[b] = Math.cos(w);
+            sin[b] = Math.sin(w);
+            coeff[b] = 2.0 * cos[b];
+        }
+    }
+
+    public void forward(float[] buffer)
+    {
+        if (buffer.length != timeSize)
+        {
+            return;
+        }
+        forward(buffer, 0);
+    }
+
+    @Override
+    public void forward(float[] buffer, int startAt)
+    {
+        if (buffer.length - startAt < timeSize)
+        {
+            return;
+        }
+
+        for (int b = 0; b < coeff.length; b++)
+        {
+            double c = coeff[b];
+            double s1 = 0;
+            double s2 = 0;
+            for (int n = startAt; n < startAt + timeSize; n++)
+            {
+                double s0 = buffer[n] + c * s1 - s2;
+                s2 = s1;
+                s1 = s0;
+            }
+            // one more step with a zero sample turns the filter state into the dft value
+            double s0 = c * s1 - s2;
+            setComplexBand(firstBand + b, (float) (s0 - cos[b] * s1), (float) (sin[b] * s1));
+        }
+        fillSpectrum();
+    }
+}
@@ -0,0 +1,15 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * Hamming window, <code>w[n] = 0.54 - 0.46*cos(2*pi*n/N)</code>.
+ * Coherent gain 0.54, first side lobe at -43 dB.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Window_function#Hamming_window">Hamming window</a>
+ */
+public class HammingWindow extends CosineSumWindow
+{
+    public HammingWindow()
+    {
+        super(0.54, 0.46);
+    }
+}
@@ -0,0 +1,15 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * Hann (raised cosine) window, <code>w[n] = 0.5 - 0.5*cos(2*pi*n/N)</code>.
+ * Coherent gain 0.5, first side lobe at -31 dB.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Window_function#Hann_.28Hanning.29_window">Hann window</a>
+ */
+public class HannWindow extends CosineSumWindow
+{
+    public HannWindow()
+    {
+        super(0.5, 0.5);
+    }
+}
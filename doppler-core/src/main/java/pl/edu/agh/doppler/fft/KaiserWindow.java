@@ -0,0 +1,52 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * Kaiser window. <code>beta</code> trades main lobe width for side lobe level,
+ * 0 is the rectangular window, about 6 is close to Hann and 9 to Blackman-Harris.
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Kaiser_window">Kaiser window</a>
+ */
+public class KaiserWindow extends WindowFunction
+{
+    private final double beta;
+
+    private final double denominator;
+
+    /**
+     * @param beta
+     *          shape parameter, not negative
+     */
+    public KaiserWindow(double beta)
+    {
+        if (beta < 0)
+            throw new IllegalArgumentException(
+                    "KaiserWindow: beta can't be negative.");
+        this.beta = beta;
+        denominator = besselI0(beta);
+    }
+
+    @Override
+    protected double value(int index, int length)
+    {
+        double x = 2.0 * index / length - 1.0;
+        return besselI0(beta * Math.sqrt(1.0 - x * x)) / denominator;
+    }
+
+    // modified Bessel function of the first kind, order zero, from its power series
+    private static double besselI0(double x)
+    {
+        double sum = 1.0;
+        double term = 1.0;
+        double halfX = x / 2.0;
+        for (int k = 1; k < 50; k++)
+        {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12)
+            {
+                break;
+            }
+        }
+        return sum;
+    }
+}
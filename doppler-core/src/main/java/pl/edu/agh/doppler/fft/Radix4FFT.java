@@ -0,0 +1,105 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * An {@link FFT} using radix-4 butterflies. Two consecutive radix-2 passes are
+ * fused into one pass over <code>real</code> and <code>imag</code>, which needs
+ * three complex multiplications per four values instead of four and halves the
+ * number of passes over the arrays. When the transform size is an odd power of
+ * two a single radix-2 pass without multiplications is done first.
+ * <p>
+ * The input is in the same radix-2 bit reversed order as in {@link FFT}, so the
+ * spectrum, <code>getBand()</code> and <code>specSize()</code> are identical.
+ *
+ * @see FourierTransforms#create(int, float, FourierTransforms.Kernel)
+ */
+public class Radix4FFT extends FFT
+{
+    /**
+     * Constructs a radix-4 FFT that will accept sample buffers that are
+     * <code>timeSize</code> long and have been recorded with a sample rate of
+     * <code>sampleRate</code>. <code>timeSize</code> <em>must</em> be a
+     * power of two. This will throw an exception if it is not.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     */
+    public Radix4FFT(int timeSize, float sampleRate)
+    {
+        super(timeSize, sampleRate);
+    }
+
+    @Override
+    protected void fft(int n)
+    {
+        float[] twiddleReal = plan.twiddleReal;
+        float[] twiddleImag = plan.twiddleImag;
+        int quarter = 1;
+        // odd power of two, start with a radix-2 pass. its only twiddle is 1.
+        if ((Integer.numberOfTrailingZeros(n) & 1) == 1)
+        {
+            for (int i = 0; i < n; i += 2)
+            {
+                float tr = real[i + 1];
+                float ti = imag[i + 1];
+                real[i + 1] = real[i] - tr;
+                imag[i + 1] = imag[i] - ti;
+                real[i] += tr;
+                imag[i] += ti;
+            }
+            quarter = 2;
+        }
+
+        for (; quarter < n; quarter *= 4)
+        {
+            int block = 4 * quarter;
+            int stride = timeSize / block;
+            for (int j = 0; j < quarter; j++)
+            {
+                // w1 = e^(-2*pi*i*j/block), w2 = w1^2, w3 = w1^3
+                float w1r = twiddleReal[j * stride];
+                float w1i = twiddleImag[j * stride];
+                float w2r = twiddleReal[2 * j * stride];
+                float w2i = twiddleImag[2 * j * stride];
+                float w3r = twiddleReal[3 * j * stride];
+                float w3i = twiddleImag[3 * j * stride];
+
+                for (int i0 = j; i0 < n; i0 += block)
+                {
+                    int i1 = i0 + quarter;
+                    int i2 = i1 + quarter;
+                    int i3 = i2 + quarter;
+
+                    // first pass pairs (x0, x1) and (x2, x3) with twiddle w2,
+                    // second pass pairs them with twiddles w1 and -i * w1
+                    float br = w2r * real[i1] - w2i * imag[i1];
+                    float bi = w2r * imag[i1] + w2i * real[i1];
+                    float cr = w1r * real[i2] - w1i * imag[i2];
+                    float ci = w1r * imag[i2] + w1i * real[i2];
+                    float dr = w3r * real[i3] - w3i * imag[i3];
+                    float di = w3r * imag[i3] + w3i * real[i3];
+
+                    float t0r = real[i0] + br;
+                    float t0i = imag[i0] + bi;
+                    float t1r = real[i0] - br;
+                    float t1i = imag[i0] - bi;
+                    float u0r = cr + dr;
+                    float u0i = ci + di;
+                    float u1r = cr - dr;
+                    float u1i = ci - di;
+
+                    real[i0] = t0r + u0r;
+                    imag[i0] = t0i + u0i;
+                    real[i2] = t0r - u0r;
+                    imag[i2] = t0i - u0i;
+                    // t1 -/+ i * u1
+                    real[i1] = t1r + u1i;
+                    imag[i1] = t1i - u1r;
+                    real[i3] = t1r - u1i;
+                    imag[i3] = t1i + u1r;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * <a href="http://en.wikipedia.org/wiki/Short-time_Fourier_transform">Short-time
+ * Fourier transform</a> on top of a {@link FourierTransform}. The last
+ * <code>timeSize()</code> samples are kept, and every <code>hopSize</code> new
+ * samples the whole frame is windowed and transformed. With a hop smaller than
+ * the frame, frames overlap (half the frame gives 50% overlap, a quarter gives
+ * 75%), so spectra come more often without making frames shorter.
+ * <p>
+ * Samples are pushed one hop at a time. After each push the spectrum of the
+ * newest frame can be read from {@link #transform()}. Nothing is allocated after
+ * construction.
+ */
+public class ShortTimeFourierTransform
+{
+    private final FourierTransform transform;
+    private final WindowFunction window;
+    private final int frameSize;
+    private final int hopSize;
+
+    /** Last frameSize samples, oldest first. */
+    private final float[] history;
+
+    /** Windowed copy of the history passed to the transform. */
+    private final float[] frame;
+
+    /**
+     * Constructs a short-time transform with frames of <code>transform.timeSize()</code>
+     * samples taken every <code>hopSize</code> samples.
+     *
+     * @param transform
+     *          transform of single frames, its time size is the frame size
+     * @param window
+     *          window applied to every frame, or null for none
+     * @param hopSize
+     *          samples between the starts of two frames, from 1 to the frame size
+     */
+    public ShortTimeFourierTransform(FourierTransform transform, WindowFunction window, int hopSize)
+    {
+        this.transform = transform;
+        this.window = window;
+        frameSize = transform.timeSize();
+        if (hopSize < 1 || hopSize > frameSize)
+            throw new IllegalArgumentException(
+                    "ShortTimeFourierTransform: hopSize must be between 1 and timeSize.");
+        this.hopSize = hopSize;
+        history = new float[frameSize];
+        frame = new float[frameSize];
+    }
+
+    /** Returns the transform holding the spectrum of the newest frame. */
+    public FourierTransform transform()
+    {
+        return transform;
+    }
+
+    /** Returns the number of samples in a frame. */
+    public int frameSize()
+    {
+        return frameSize;
+    }
+
+    /** Returns the number of samples between two frames. */
+    public int hopSize()
+    {
+        return hopSize;
+    }
+
+    /**
+     * Appends <code>hopSize</code> samples starting at <code>offset</code> and
+     * transforms the newest frame.
+     *
+     * @param samples
+     *          buffer holding at least hopSize samples after offset
+     * @param offset
+     *          index of the first new sample
+     */
+    public void push(float[] samples, int offset)
+    {
+        System.arraycopy(history, hopSize, history, 0, frameSize - hopSize);
+        System.arraycopy(samples, offset, history, frameSize - hopSize, hopSize);
+
+        System.arraycopy(history, 0, frame, 0, frameSize);
+        if (window != null)
+        {
+            window.apply(frame, 0, frameSize);
+        }
+        transform.forward(frame);
+    }
+
+    /**
+     * Copies the samples of the newest frame, before windowing, oldest first.
+     *
+     * @param dst
+     *          array of at least frameSize samples
+     */
+    public void copyHistory(float[] dst)
+    {
+        System.arraycopy(history, 0, dst, 0, frameSize);
+    }
+}
@@ -0,0 +1,199 @@
+package pl.edu.agh.doppler.fft;
+
+/**
+ * A streaming Fourier transform of the last <code>timeSize</code> samples. Samples
+ * are pushed one by one and every tracked band is updated with the
+ * <a href="http://www.comm.utoronto.ca/~dimitris/ece431/slidingdft.pdf">sliding DFT</a>
+ * recurrence <code>X[k] = (X[k] + x[n] - x[n - timeSize]) * e^(2*pi*i*k/timeSize)</code>,
+ * which costs one complex multiplication per band and sample. The spectrum can
+ * therefore be read after any number of samples instead of once per buffer.
+ * <p>
+ * When a window is given the spectrum is the one of the windowed buffer. Only
+ * {@link CosineSumWindow}s are supported, they are applied in the frequency
+ * domain by combining neighbouring bands, e.g. <code>X[k]/2 - (X[k-1] + X[k+1])/4</code>
+ * for Hann. One extra band is tracked on each side of the range per cosine term
+ * (bands below 0 and above timeSize/2 are valid, they are the conjugates of their
+ * mirror images).
+ * <p>
+ * Rounding errors of the recurrence would accumulate over time, so every
+ * <code>timeSize</code> samples the tracked bands are recomputed directly from
+ * the sample history. This doubles the cost per sample, but it stays
+ * proportional to the number of bands.
+ */
+public class SlidingDFT extends BandTransform
+{
+    /** Cosine terms of the window, a0 = 1 when there is no window. */
+    private final double[] windowTerms;
+
+    /** First band of the recurrence, extended below firstBand when windowing. */
+    private final int trackedFirst;
+
+    private final double[] cos;
+    private final double[] sin;
+    private final double[] binReal;
+    private final double[] binImag;
+
+    /** The last timeSize samples, the oldest one at position. */
+    private final float[] history;
+    private int position;
+
+    /**
+     * Constructs a sliding DFT that tracks bands <code>firstBand</code> to
+     * <code>lastBand</code> (inclusive) of the last <code>timeSize</code>
+     * samples. The history starts filled with zeros.
+     *
+     * @param timeSize
+     *          the length of the analyzed window
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     * @param firstBand
+     *          the first band to track
+     * @param lastBand
+     *          the last band to track
+     * @param window
+     *          window applied to the analyzed samples, a {@link CosineSumWindow} or null
+     */
+    public SlidingDFT(int timeSize, float sampleRate, int firstBand, int lastBand, WindowFunction window)
+    {
+        super(timeSize, sampleRate, firstBand, lastBand);
+        if (window == null)
+        {
+            windowTerms = new double[] { 1.0 };
+        }
+        else
+        {
+            windowTerms = window.cosineTerms();
+            if (windowTerms == null)
+                throw new IllegalArgumentException(
+                        "SlidingDFT: only cosine sum windows are supported.");
+        }
+        int extra = windowTerms.length - 1;
+        trackedFirst = this.firstBand - extra;
+        int trackedLast = this.lastBand + extra;
+
+        int bands = trackedLast - trackedFirst + 1;
+        cos = new double[bands];
+        sin = new double[bands];
+        binReal = new double[bands];
+        binImag = new double[bands];
+        for (int b = 0; b < bands; b++)
+        {
+            double w = 2.0 * Math.PI * (trackedFirst + b) / timeSize;
+            cos[b] = Math.cos(w);
+            sin[b] = Math.sin(w);
+        }
+        history = new float[timeSize];
+    }
+
+    /**
+     * Pushes a single sample. The spectrum is not updated until
+     * {@link #push(float[], int, int)} is called.
+     *
+     * @param sample
+     *          the newest sample
+     */
+    public void push(float sample)
+    {
+        double delta = sample - history[position];
+        history[position] = sample;
+        position++;
+
+        if (position == timeSize)
+        {
+            position = 0;
+            resync();
+            return;
+        }
+
+        for (int b = 0; b < cos.length; b++)
+        {
+            double r = binReal[b] + delta;
+            double i = binImag[b];
+            binReal[b] = r * cos[b] - i * sin[b];
+            binImag[b] = r * sin[b] + i * cos[b];
+        }
+    }
+
+    /**
+     * Pushes <code>length</code> samples starting at <code>offset</code> and
+     * updates the spectrum of the tracked bands.
+     *
+     * @param samples
+     *          the samples buffer
+     * @param offset
+     *          index of the first sample to push
+     * @param length
+     *          how many samples to push
+     */
+    public void push(float[] samples, int offset, int length)
+    {
+        for (int n = offset; n < offset + length; n++)
+        {
+            push(samples[n]);
+        }
+        fillBands();
+    }
+
+    /**
+     * Pushes the whole <code>buffer</code>, so the spectrum is the one of
+     * <code>buffer</code> alone.
+     */
+    public void forward(float[] buffer)
+    {
+        if (buffer.length != timeSize)
+        {
+            return;
+        }
+        push(buffer, 0, timeSize);
+    }
+
+    @Override
+    public void forward(float[] buffer, int startAt)
+    {
+        if (buffer.length - startAt < timeSize)
+        {
+            return;
+        }
+        push(buffer, startAt, timeSize);
+    }
+
+    // recomputes the tracked bands from the history, which is in chronological
+    // order whenever position wraps to zero
+    private void resync()
+    {
+        for (int b = 0; b < cos.length; b++)
+        {
+            double c = 2.0 * cos[b];
+            double s1 = 0;
+            double s2 = 0;
+            for (int n = 0; n < timeSize; n++)
+            {
+                double s0 = history[n] + c * s1 - s2;
+                s2 = s1;
+                s1 = s0;
+            }
+            double s0 = c * s1 - s2;
+            binReal[b] = s0 - cos[b] * s1;
+            binImag[b] = sin[b] * s1;
+        }
+    }
+
+    private void fillBands()
+    {
+        for (int k = firstBand; k <= lastBand; k++)
+        {
+            int b = k - trackedFirst;
+            double re = windowTerms[0] * binReal[b];
+            double im = windowTerms[0] * binImag[b];
+            // X[k] = a0*X[k] - a1/2*(X[k-1] + X[k+1]) + a2/2*(X[k-2] + X[k+2]) - ...
+            for (int m = 1; m < windowTerms.length; m++)
+            {
+                double a = (m % 2 == 0 ? 0.5 : -0.5) * windowTerms[m];
+                re += a * (binReal[b - m] + binReal[b + m]);
+                im += a * (binImag[b - m] + binImag[b + m]);
+            }
+            setComplexBand(k, (float) re, (float) im);
+        }
+        fillSpectrum();
+    }
+}
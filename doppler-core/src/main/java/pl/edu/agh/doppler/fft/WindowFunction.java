@@ -0,0 +1,113 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A <a href="http://en.wikipedia.org/wiki/Window_function">window function</a>
+ * shapes a sample buffer before it is transformed to reduce spectral leakage.
+ * <p>
+ * Coefficients are computed once per buffer length and cached, so applying a
+ * window is a single multiplication per sample. All windows are periodic (DFT
+ * even), <code>w[n]</code> is computed over <code>length</code> rather than
+ * <code>length - 1</code>, which is what spectral analysis wants.
+ *
+ * @see FourierTransform
+ */
+public abstract class WindowFunction
+{
+    private final ConcurrentHashMap<Integer, float[]> tables = new ConcurrentHashMap<Integer, float[]>();
+
+    /** Most recently used table. Saves the map lookup (and boxing) on every frame. */
+    private volatile float[] lastTable;
+
+    /**
+     * Returns the window value at <code>index</code> of a buffer that is
+     * <code>length</code> long.
+     *
+     * @param index
+     *          sample index, from 0 to length - 1
+     * @param length
+     *          buffer length
+     * @return value of the window
+     */
+    protected abstract double value(int index, int length);
+
+    /**
+     * Returns the coefficients of the terms of the window when it is a sum of
+     * cosines, <code>w[n] = a0 - a1*cos(2*pi*n/N) + a2*cos(4*pi*n/N) - ...</code>.
+     * Such windows can be applied in the frequency domain by combining
+     * neighbouring bands. Other windows return <code>null</code>.
+     *
+     * @return coefficients <code>a0, a1, ...</code> or null
+     */
+    public double[] cosineTerms()
+    {
+        return null;
+    }
+
+    /**
+     * Multiplies <code>length</code> samples starting at <code>offset</code> by
+     * the window.
+     *
+     * @param samples
+     *          the samples to shape
+     * @param offset
+     *          first sample of the buffer
+     * @param length
+     *          buffer length
+     */
+    public void apply(float[] samples, int offset, int length)
+    {
+        float[] table = table(length);
+        for (int i = 0; i < length; i++)
+        {
+            samples[offset + i] *= table[i];
+        }
+    }
+
+    /**
+     * Returns the coherent gain of the window for given length, which is the mean
+     * of its coefficients. An amplitude measured in a windowed spectrum divided by
+     * the coherent gain gives the amplitude without the window.
+     *
+     * @param length
+     *          buffer length
+     * @return coherent gain, 1 for no window
+     */
+    public float coherentGain(int length)
+    {
+        float[] table = table(length);
+        double sum = 0;
+        for (float value : table)
+        {
+            sum += value;
+        }
+        return (float) (sum / length);
+    }
+
+    private float[] table(int length)
+    {
+        float[] table = lastTable;
+        if (table != null && table.length == length)
+        {
+            return table;
+        }
+
+        table = tables.get(length);
+        if (table == null)
+        {
+            table = new float[length];
+            for (int i = 0; i < length; i++)
+            {
+                table[i] = (float) value(i, length);
+            }
+            float[] existing = tables.putIfAbsent(length, table);
+            if (existing != null)
+            {
+                table = existing;
+            }
+        }
+        lastTable = table;
+        return table;
+    }
+}
@@ -0,0 +1,203 @@
+package pl.edu.agh.doppler.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import pl.edu.agh.doppler.engine.CarrierTracker;
+import pl.edu.agh.doppler.engine.EngineFactory;
+import pl.edu.agh.doppler.engine.EngineProfile;
+import pl.edu.agh.doppler.engine.GestureDetector;
+import pl.edu.agh.doppler.engine.GestureEngine;
+import pl.edu.agh.doppler.engine.SyntheticAudioSource;
+
+/**
+ * Checks that batch analysis of a recording gives the bandwidths and gestures the device pipeline
+ * gives when fed the same samples hop by hop.
+ */
+public class BatchAnalyzerTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /** Recorded carrier, a few Hz off the played one so the carrier tracker has work to do. */
+    private static final double RECORDED_CARRIER = 20007;
+
+    private File directory;
+
+    private File recording;
+
+    private short[] samples;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("batch", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        recording = new File(directory, "recording.wav");
+
+        //ten seconds with a hand moving every second
+        samples = new short[SAMPLE_RATE * 10];
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, RECORDED_CARRIER, 0.5, 0.01, false, 7);
+        source.start();
+        int chunk = SAMPLE_RATE / 10;
+        for(int offset = 0; offset < samples.length; offset += chunk) {
+            int tenth = offset / chunk % 10;
+            source.setReflection(tenth == 5 ? 150 : tenth == 6 ? -150 : 0, tenth == 5 || tenth == 6 ? 0.3 : 0);
+            source.read(samples, offset, Math.min(chunk, samples.length - offset));
+        }
+        writeWav(recording, samples);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+        super.tearDown();
+    }
+
+    public void testDefaultsMatchDevice() throws IOException {
+        assertMatchesDevice(new EngineFactory());
+    }
+
+    public void testFixedPointMatchesDevice() throws IOException {
+        EngineFactory factory = new EngineFactory();
+        factory.setFixedPoint(true);
+        assertMatchesDevice(factory);
+    }
+
+    public void testPowerWithoutTrackingMatchesDevice() throws IOException {
+        EngineFactory factory = new EngineFactory();
+        factory.setPowerSpectrum(true);
+        factory.setCarrierTracking(false);
+        assertMatchesDevice(factory);
+    }
+
+    public void testLowLatencyMatchesDevice() throws IOException {
+        EngineFactory factory = new EngineFactory();
+        factory.setProfile(EngineProfile.LOW_LATENCY);
+        assertMatchesDevice(factory);
+    }
+
+    public void testFailedFileDoesNotStopOthers() throws IOException {
+        //the reader takes a negative sample rate, building the engine throws IllegalArgumentException
+        File corrupt = new File(directory, "corrupt.wav");
+        writeWav(corrupt, -SAMPLE_RATE, samples);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<BatchAnalyzer.Summary> summaries;
+        try {
+            summaries = new BatchAnalyzer(new EngineFactory()).analyze(pool, Arrays.asList(corrupt, recording),
+                    directory);
+        } finally {
+            pool.shutdown();
+        }
+        assertNotNull(summaries.get(0).error);
+        assertFalse(new File(directory, "corrupt.dop").exists());
+        assertNull(summaries.get(1).error);
+        assertTrue(new File(directory, "recording.dop").exists());
+    }
+
+    public void testEngineOptions() {
+        EngineFactory factory = new EngineFactory();
+        String[] args = {"-profile", "BALANCED", "-carriers", "19000,20500", "-fixedPoint", "-power",
+                "-noTracking", "-threads", "2"};
+        int i = 0;
+        while(BatchAnalyzer.parseEngineOption(factory, args, i) > i) {
+            i = BatchAnalyzer.parseEngineOption(factory, args, i);
+        }
+        assertEquals(7, i);
+        assertEquals(EngineProfile.BALANCED, factory.getProfile());
+        assertTrue(Arrays.equals(new float[] {19000, 20500}, factory.getCarriers()));
+        assertTrue(factory.isFixedPoint());
+        assertTrue(factory.isPowerSpectrum());
+        assertFalse(factory.isCarrierTracking());
+    }
+
+    /** Runs batch analysis and the device pipeline built by the same factory, compares results. */
+    private void assertMatchesDevice(EngineFactory factory) throws IOException {
+        GestureEngine engine = factory.createEngines(SAMPLE_RATE, 1, factory.getCarriers())[0];
+        CarrierTracker tracker = factory.createTracker(factory.getCarriers(), engine);
+        int hop = factory.getHopSize(SAMPLE_RATE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int gestures = 0;
+        for(int offset = 0; offset + hop <= samples.length; offset += hop) {
+            int gesture = engine.process(samples, offset);
+            if(tracker != null) {
+                tracker.update();
+            }
+            expected.write(engine.getLeftBandwidth());
+            expected.write(engine.getRightBandwidth());
+            expected.write(gesture);
+            if(gesture > GestureDetector.NOTHING) {
+                gestures++;
+            }
+        }
+        assertTrue("No gestures in the recording", gestures > 0);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<BatchAnalyzer.Summary> summaries;
+        try {
+            summaries = new BatchAnalyzer(factory).analyze(pool, Collections.singletonList(recording), directory);
+        } finally {
+            pool.shutdown();
+        }
+        assertNull(summaries.get(0).error);
+
+        DataInputStream in = new DataInputStream(new FileInputStream(new File(directory, "recording.dop")));
+        try {
+            assertEquals(BatchAnalyzer.MAGIC, in.readInt());
+            assertEquals(BatchAnalyzer.VERSION, in.readInt());
+            assertEquals(SAMPLE_RATE, in.readInt());
+            assertEquals(factory.getFrameSize(SAMPLE_RATE), in.readInt());
+            assertEquals(hop, in.readInt());
+            byte[] actual = new byte[expected.size()];
+            in.readFully(actual);
+            assertEquals(-1, in.read());
+            assertTrue(Arrays.equals(expected.toByteArray(), actual));
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Writes mono 16 bit WAV file. */
+    private static void writeWav(File file, short[] samples) throws IOException {
+        writeWav(file, SAMPLE_RATE, samples);
+    }
+
+    private static void writeWav(File file, int sampleRate, short[] samples) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + 2 * samples.length));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(sampleRate));
+            out.writeInt(Integer.reverseBytes(2 * sampleRate));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(2 * samples.length));
+            for(short sample : samples) {
+                out.writeShort(Short.reverseBytes(sample));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
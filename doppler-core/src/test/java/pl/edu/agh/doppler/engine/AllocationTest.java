@@ -0,0 +1,292 @@
+package pl.edu.agh.doppler.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+import pl.edu.agh.doppler.fft.BlackmanHarrisWindow;
+import pl.edu.agh.doppler.fft.FFT;
+import pl.edu.agh.doppler.fft.FourierTransforms;
+import pl.edu.agh.doppler.fft.GoertzelBank;
+import pl.edu.agh.doppler.fft.HannWindow;
+import pl.edu.agh.doppler.fft.SlidingDFT;
+import pl.edu.agh.doppler.fft.WindowFunction;
+
+/**
+ * Checks that the detection loop does not allocate once it is running: microphone samples going
+ * through the ring buffer, transforms, bandwidth analysis, gesture detection, carrier tracking
+ * and publishing of gestures, as done by <code>Doppler</code> every hop.
+ */
+public class AllocationTest extends TestCase {
+
+    private static final int TIME_SIZE = 2048;
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int FRAMES = 50;
+
+    /** Runs before allocations are counted, so lazy initialization and compilation are done. */
+    private static final int WARM_UP_RUNS = 400;
+
+    private static final float CARRIER = 20000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final float[] samples = new float[TIME_SIZE];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = (float) Math.sin(2 * Math.PI * CARRIER * i / SAMPLE_RATE);
+        }
+    }
+
+    public void testFftForwardDoesNotAllocate() {
+        final FFT fft = new FFT(TIME_SIZE, SAMPLE_RATE);
+        final FFT defaultFft = FourierTransforms.create(TIME_SIZE, SAMPLE_RATE);
+        final float[] real = new float[TIME_SIZE];
+        final float[] imag = new float[TIME_SIZE];
+        final float[] inverse = new float[TIME_SIZE];
+
+        assertNoAllocations(new Runnable() {
+            @Override
+            public void run() {
+                fft.forward(samples);
+                fft.forward(samples, 0);
+                fft.forward(real, imag);
+                fft.inverse(inverse);
+                defaultFft.forward(samples);
+                defaultFft.getBand(TIME_SIZE / 4);
+            }
+        });
+    }
+
+    public void testBandTransformsDoNotAllocate() {
+        final GoertzelBank goertzel = new GoertzelBank(TIME_SIZE, SAMPLE_RATE, 900, 960);
+        final SlidingDFT slidingDft = new SlidingDFT(TIME_SIZE, SAMPLE_RATE, 900, 960, new HannWindow());
+
+        assertNoAllocations(new Runnable() {
+            @Override
+            public void run() {
+                goertzel.forward(samples);
+                slidingDft.push(samples, 0, 256);
+            }
+        });
+    }
+
+    public void testWindowDoesNotAllocate() {
+        final WindowFunction window = new BlackmanHarrisWindow();
+
+        assertNoAllocations(new Runnable() {
+            @Override
+            public void run() {
+                window.apply(samples, 0, TIME_SIZE);
+            }
+        });
+    }
+
+    public void testDetectionLoopDoesNotAllocate() {
+        for(EngineProfile profile : EngineProfile.values()) {
+            assertLoopDoesNotAllocate(profile, 1, false, false);
+        }
+    }
+
+    public void testPowerDetectionLoopDoesNotAllocate() {
+        assertLoopDoesNotAllocate(EngineProfile.HIGH_RESOLUTION, 1, false, true);
+    }
+
+    public void testFixedPointDetectionLoopDoesNotAllocate() {
+        assertLoopDoesNotAllocate(EngineProfile.HIGH_RESOLUTION, 1, true, false);
+        assertLoopDoesNotAllocate(EngineProfile.HIGH_RESOLUTION, 1, true, true);
+    }
+
+    public void testStereoDetectionLoopDoesNotAllocate() {
+        assertLoopDoesNotAllocate(EngineProfile.BALANCED, 2, false, false);
+    }
+
+    /**
+     * Plays a tone drifting away from the carrier, so the tracker keeps retuning it, and checks
+     * that retunes copy frequencies to the tone as <code>Doppler</code> does without allocating.
+     */
+    public void testCarrierRetuneDoesNotAllocate() {
+        EngineFactory factory = new EngineFactory();
+        final float[] played = factory.getCarriers();
+        final GestureEngine engine = factory.createEngines(SAMPLE_RATE, 1, played)[0];
+        final CarrierTracker tracker = factory.createTracker(played, engine);
+        final int hop = factory.getHopSize(SAMPLE_RATE);
+        final short[] samples = new short[hop];
+        final double[] heard = new double[played.length];
+        for(int c = 0; c < played.length; ++c) {
+            heard[c] = played[c];
+        }
+        final ToneGenerator tone = new ToneGenerator(SAMPLE_RATE, heard);
+        //hop of the last retune, and the one to run next
+        final int[] hops = new int[2];
+
+        Runnable loop = new Runnable() {
+            @Override
+            public void run() {
+                //heard tone drifts a quarter of a Hz per hop from the played one
+                for(int c = 0; c < played.length; ++c) {
+                    heard[c] = played[c] + 0.25 * hops[1];
+                }
+                tone.setFrequencies(heard);
+                tone.generate(samples, 0, hop);
+                engine.process(samples, 0);
+                if(tracker.update()) {
+                    tracker.getFrequencies(played);
+                    hops[0] = hops[1];
+                }
+                hops[1]++;
+            }
+        };
+        assertNoAllocations(loop);
+        assertTrue("No retune while counting", hops[1] - hops[0] <= FRAMES);
+    }
+
+    /**
+     * Runs the loop of <code>Doppler</code> over a synthetic carrier with a hand moving back and
+     * forth, and checks that hops allocate nothing on the analysis thread and channel workers.
+     */
+    private static void assertLoopDoesNotAllocate(EngineProfile profile, int channels, boolean fixedPoint,
+                                                  boolean power) {
+        final int hop = profile.getHopSize(SAMPLE_RATE);
+        int timeSize = profile.getFrameSize(SAMPLE_RATE);
+        DetectorConfig config = new DetectorConfig();
+        GestureEngine[] engines = new GestureEngine[channels];
+        for(int c = 0; c < channels; ++c) {
+            BandwidthAnalyzer analyzer = new BandwidthAnalyzer(SAMPLE_RATE, timeSize, hop, new HannWindow(),
+                    19000, 21000);
+            analyzer.setFixedPoint(fixedPoint);
+            analyzer.setPowerSpectrum(power);
+            engines[c] = new GestureEngine(analyzer, new float[] {CARRIER}, 1000, SAMPLE_RATE, config);
+        }
+        final MultiChannelEngine engine = new MultiChannelEngine(engines, true, config);
+        final CarrierTracker tracker = new CarrierTracker(new float[] {CARRIER}, config, engines);
+        final GestureEventBus bus = new GestureEventBus(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        bus.addListener(new CountingListener());
+
+        final SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, CARRIER, 0.5, 0.01, false, 1);
+        final SampleRingBuffer ring = new SampleRingBuffer(SAMPLE_RATE * channels, channels);
+        final short[] mono = new short[hop];
+        final short[] captured = new short[hop * channels];
+        final short[] buffer = new short[hop * channels];
+        final int[] hops = new int[1];
+        source.start();
+
+        Runnable loop = new Runnable() {
+            @Override
+            public void run() {
+                //hand moving towards and away, half a second each
+                int phase = (int) ((long) hops[0]++ * hop * 2 / SAMPLE_RATE % 4);
+                source.setReflection(phase == 1 ? 60 : phase == 3 ? -60 : 0, phase % 2 == 1 ? 0.2 : 0);
+
+                source.read(mono, 0, hop);
+                for(int i = 0; i < hop; ++i) {
+                    for(int c = 0; c < engine.getChannelCount(); ++c) {
+                        captured[i * engine.getChannelCount() + c] = mono[i];
+                    }
+                }
+                ring.write(captured, 0, captured.length);
+                ring.read(buffer, 0, buffer.length);
+                int gesture = engine.process(buffer, 0);
+                tracker.update();
+                bus.publish(gesture);
+            }
+        };
+        try {
+            while(!engine.isReady()) {
+                loop.run();
+            }
+            Thread[] workers = channelWorkers();
+            assertTrue("Channel workers not found", workers.length >= channels - 1);
+            assertNoAllocations(loop, workers);
+        } finally {
+            engine.close();
+        }
+    }
+
+    /** Returns worker threads of multi channel engines. */
+    private static Thread[] channelWorkers() {
+        List<Thread> workers = new ArrayList<Thread>();
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.getName().startsWith("DopplerChannel") && thread.isAlive()) {
+                workers.add(thread);
+            }
+        }
+        return workers.toArray(new Thread[workers.size()]);
+    }
+
+    /**
+     * Runs task to warm up, then checks that next runs allocate nothing on this thread and given
+     * threads.
+     */
+    private static void assertNoAllocations(Runnable task, Thread... others) {
+        assertTrue("Allocation counting not supported", THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        for(int i = 0; i < WARM_UP_RUNS; ++i) {
+            task.run();
+        }
+
+        long[] ids = new long[others.length + 1];
+        ids[0] = Thread.currentThread().getId();
+        for(int i = 0; i < others.length; ++i) {
+            ids[i + 1] = others[i].getId();
+        }
+        long[] before = new long[ids.length];
+        long[] after = new long[ids.length];
+        //first call may initialize the counters
+        THREADS.getThreadAllocatedBytes(ids[0]);
+
+        for(int i = 0; i < ids.length; ++i) {
+            before[i] = THREADS.getThreadAllocatedBytes(ids[i]);
+        }
+        for(int i = 0; i < FRAMES; ++i) {
+            task.run();
+        }
+        for(int i = 0; i < ids.length; ++i) {
+            after[i] = THREADS.getThreadAllocatedBytes(ids[i]);
+        }
+        for(int i = 0; i < ids.length; ++i) {
+            assertEquals("Bytes allocated by thread " + ids[i], before[i], after[i]);
+        }
+    }
+
+    private static class CountingListener implements GestureListener {
+
+        int gestures;
+
+        @Override
+        public void onPush() {
+            gestures++;
+        }
+
+        @Override
+        public void onPull() {
+            gestures++;
+        }
+
+        @Override
+        public void onTap() {
+            gestures++;
+        }
+
+        @Override
+        public void onDoubleTap() {
+            gestures++;
+        }
+
+        @Override
+        public void onNothing() {
+        }
+    }
+}
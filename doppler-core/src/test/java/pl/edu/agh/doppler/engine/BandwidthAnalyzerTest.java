@@ -0,0 +1,196 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks bandwidth scan of {@link BandwidthAnalyzer} against the original scan of four loops,
+ * which divided every band by the primary tone.
+ */
+public class BandwidthAnalyzerTest extends TestCase {
+
+    private static final int PRIMARY = 40;
+
+    private static final int SPECTRUM_SIZE = 2 * PRIMARY + 1;
+
+    private static final double MAX_VOL_RATIO = 0.1;
+
+    private static final double SECOND_PEAK_RATIO = 0.3;
+
+    private static final int WINDOW = 33;
+
+    public void testRandomSpectraMatchBaseline() {
+        Random random = new Random(21);
+        float[] spectrum = new float[SPECTRUM_SIZE];
+        for(int i = 0; i < 100000; ++i) {
+            //mostly quiet bands with a few loud ones, so all branches are hit
+            for(int b = 0; b < SPECTRUM_SIZE; ++b) {
+                spectrum[b] = random.nextInt(4) == 0 ? random.nextFloat() : random.nextFloat() * 0.05f;
+            }
+            spectrum[PRIMARY] = random.nextInt(100) == 0 ? 0 : 0.5f + random.nextFloat();
+            int window = 1 + random.nextInt(PRIMARY);
+            double maxVolRatio = 0.02 + random.nextDouble() * 0.3;
+            double secondPeakRatio = maxVolRatio + random.nextDouble() * 0.5;
+            assertMatchesBaseline(spectrum, maxVolRatio, secondPeakRatio, window);
+        }
+    }
+
+    public void testRightSecondaryPeak() {
+        float[] spectrum = quietSpectrum();
+        //primary scan ends at the first minimum, the "split off" peak behind it extends the bandwidth.
+        //secondary scan starts next to the primary tone, so a louder first band would end it there
+        spectrum[PRIMARY + 1] = 0.2f;
+        spectrum[PRIMARY + 2] = 0.05f;
+        spectrum[PRIMARY + 3] = 0.4f;
+        spectrum[PRIMARY + 4] = 0.2f;
+        spectrum[PRIMARY + 5] = 0.05f;
+        int[] result = assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+        assertEquals(2, result[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH]);
+        assertEquals(5, result[BandwidthAnalyzer.RIGHT_BANDWIDTH]);
+        assertEquals(1, result[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+    }
+
+    public void testLeftSecondaryPeak() {
+        float[] spectrum = quietSpectrum();
+        spectrum[PRIMARY - 1] = 0.5f;
+        spectrum[PRIMARY - 2] = 0.05f;
+        spectrum[PRIMARY - 3] = 0.4f;
+        spectrum[PRIMARY - 4] = 0.05f;
+        int[] result = assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+        assertEquals(2, result[BandwidthAnalyzer.LEFT_PRIMARY_BANDWIDTH]);
+        assertEquals(4, result[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+    }
+
+    public void testWindowEdge() {
+        float[] spectrum = quietSpectrum();
+        //loud up to the window on the left, a peak that never ends on the right
+        for(int k = 1; k <= WINDOW; ++k) {
+            spectrum[PRIMARY - k] = 0.5f;
+        }
+        spectrum[PRIMARY + 1] = 0.05f;
+        for(int k = 2; k <= WINDOW; ++k) {
+            spectrum[PRIMARY + k] = 0.5f;
+        }
+        int[] result = assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+        assertEquals(WINDOW, result[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+        assertEquals(1, result[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH]);
+        assertEquals(WINDOW, result[BandwidthAnalyzer.RIGHT_BANDWIDTH]);
+
+        //smallest window
+        assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, 1);
+    }
+
+    public void testSilentPrimaryTone() {
+        float[] spectrum = quietSpectrum();
+        spectrum[PRIMARY] = 0;
+        assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+
+        //silent neighbours end the scans, louder ones never do
+        spectrum[PRIMARY - 3] = 0;
+        spectrum[PRIMARY + 1] = 0;
+        spectrum[PRIMARY + 2] = 0.5f;
+        spectrum[PRIMARY + 6] = 0;
+        int[] result = assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+        assertEquals(3, result[BandwidthAnalyzer.LEFT_PRIMARY_BANDWIDTH]);
+        //every louder band is a "split off" peak and no band is quieter than silence
+        assertEquals(WINDOW, result[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+        assertEquals(1, result[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH]);
+
+        Arrays.fill(spectrum, 0);
+        assertMatchesBaseline(spectrum, MAX_VOL_RATIO, SECOND_PEAK_RATIO, WINDOW);
+    }
+
+    /** Returns spectrum with a loud primary tone and quiet bands around it. */
+    private static float[] quietSpectrum() {
+        float[] spectrum = new float[SPECTRUM_SIZE];
+        Arrays.fill(spectrum, 0.01f);
+        spectrum[PRIMARY] = 1;
+        return spectrum;
+    }
+
+    private static int[] assertMatchesBaseline(float[] spectrum, double maxVolRatio, double secondPeakRatio,
+                                               int window) {
+        int[] expected = new int[4];
+        baselineScan(spectrum, PRIMARY, maxVolRatio, secondPeakRatio, window, expected);
+        int[] result = new int[4];
+        BandwidthAnalyzer.scanBandwidth(spectrum, PRIMARY, maxVolRatio, secondPeakRatio, window, result);
+        String message = Arrays.toString(spectrum) + " window:" + window;
+        assertEquals(message, expected[BandwidthAnalyzer.LEFT_BANDWIDTH], result[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+        assertEquals(message, expected[BandwidthAnalyzer.RIGHT_BANDWIDTH], result[BandwidthAnalyzer.RIGHT_BANDWIDTH]);
+        assertEquals(message, expected[BandwidthAnalyzer.LEFT_PRIMARY_BANDWIDTH],
+                result[BandwidthAnalyzer.LEFT_PRIMARY_BANDWIDTH]);
+        assertEquals(message, expected[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH],
+                result[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH]);
+        return result;
+    }
+
+    /** The original scan: primary and secondary scan on the left, then on the right. */
+    private static void baselineScan(float[] spectrum, int primaryTone, double maxVolRatio,
+                                     double secondPeakRatio, int window, int[] result) {
+        double normalizedVolume;
+        double primaryVolume = spectrum[primaryTone];
+        int leftBandwidth = 0;
+
+        do {
+            leftBandwidth++;
+            double volume = spectrum[primaryTone - leftBandwidth];
+            normalizedVolume = volume / primaryVolume;
+        } while(normalizedVolume > maxVolRatio && leftBandwidth < window);
+        result[BandwidthAnalyzer.LEFT_PRIMARY_BANDWIDTH] = leftBandwidth;
+
+        int secondScanFlag = 0;
+        int secondaryLeftBandwidth = leftBandwidth;
+
+        while(secondaryLeftBandwidth < window) {
+            secondaryLeftBandwidth++;
+            double volume = spectrum[primaryTone - secondaryLeftBandwidth];
+            normalizedVolume = volume / primaryVolume;
+
+            if(normalizedVolume > secondPeakRatio) {
+                secondScanFlag = 1;
+            }
+
+            if(secondScanFlag == 1 && normalizedVolume < maxVolRatio) {
+                break;
+            }
+        }
+
+        if(secondScanFlag == 1) {
+            leftBandwidth = secondaryLeftBandwidth;
+        }
+
+        int rightBandwidth = 0;
+
+        do {
+            rightBandwidth++;
+            double volume = spectrum[primaryTone + rightBandwidth];
+            normalizedVolume = volume / primaryVolume;
+        } while(normalizedVolume > maxVolRatio && rightBandwidth < window);
+        result[BandwidthAnalyzer.RIGHT_PRIMARY_BANDWIDTH] = rightBandwidth;
+
+        secondScanFlag = 0;
+        int secondaryRightBandwidth = 0;
+        do {
+            secondaryRightBandwidth++;
+            double volume = spectrum[primaryTone + secondaryRightBandwidth];
+            normalizedVolume = volume / primaryVolume;
+
+            if(normalizedVolume > secondPeakRatio) {
+                secondScanFlag = 1;
+            }
+
+            if(secondScanFlag == 1 && normalizedVolume < maxVolRatio) {
+                break;
+            }
+        } while(secondaryRightBandwidth < window);
+
+        if(secondScanFlag == 1) {
+            rightBandwidth = secondaryRightBandwidth;
+        }
+
+        result[BandwidthAnalyzer.LEFT_BANDWIDTH] = leftBandwidth;
+        result[BandwidthAnalyzer.RIGHT_BANDWIDTH] = rightBandwidth;
+    }
+}
@@ -0,0 +1,99 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs {@link CarrierTracker} in a closed loop: the played tone is retuned to the tracked
+ * frequencies, while the tone heard by the microphone drifts away from the played one, like with
+ * clocks of the speaker and the microphone drifting apart.
+ */
+public class CarrierTrackerTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final float CARRIER = 20000;
+
+    /** Drift of the heard tone at the end of the recording, in Hz, about four bands. */
+    private static final double DRIFT = 45;
+
+    private static final int SECONDS = 60;
+
+    public void testTrackingFollowsDrift() {
+        EngineFactory factory = new EngineFactory();
+        double[] errors = run(factory, DRIFT);
+        //heard tone stays near the center of the carrier band, within the hysteresis and the drift
+        //of a few hops between evaluations
+        assertTrue("max error " + errors[0], errors[0] < CarrierTracker.HYSTERESIS + 0.1);
+        assertTrue("mean error " + errors[1], errors[1] < 0.2);
+    }
+
+    public void testCentersStaticOffset() {
+        EngineFactory factory = new EngineFactory();
+        //tone about half way between two bands, corrected once and kept there. what is left is the
+        //bias of the peak interpolation of such a tone
+        double[] errors = run(factory, 0, 5.2);
+        assertTrue("final error " + errors[2], errors[2] < 0.1);
+    }
+
+    public void testDriftWithoutTracking() {
+        EngineFactory factory = new EngineFactory();
+        factory.setCarrierTracking(false);
+        double[] errors = run(factory, DRIFT);
+        //the carrier band is left behind
+        assertTrue("max error " + errors[0], errors[0] > 3);
+    }
+
+    private static double[] run(EngineFactory factory, double drift) {
+        return run(factory, drift, 0);
+    }
+
+    /**
+     * Plays a tone through a drifting channel and processes what is heard.
+     *
+     * @param drift offset of the heard tone reached linearly at the end, in Hz
+     * @param offset constant offset of the heard tone, in Hz
+     * @return maximal and mean distance of the heard tone from the carrier band in bands after the
+     *         engine got ready, and the distance at the end
+     */
+    private static double[] run(EngineFactory factory, double drift, double offset) {
+        float[] carriers = factory.getCarriers();
+        GestureEngine engine = factory.createEngines(SAMPLE_RATE, 1, carriers)[0];
+        CarrierTracker tracker = factory.createTracker(carriers, engine);
+        BandwidthAnalyzer analyzer = engine.getAnalyzer();
+        ToneGenerator tone = new ToneGenerator(SAMPLE_RATE, CARRIER + offset);
+        Random random = new Random(24);
+        int hop = factory.getHopSize(SAMPLE_RATE);
+        short[] samples = new short[hop];
+        double played = CARRIER;
+
+        int hops = SAMPLE_RATE * SECONDS / hop;
+        double max = 0;
+        double sum = 0;
+        int measured = 0;
+        double error = 0;
+        for(int h = 0; h < hops; ++h) {
+            double heard = played + offset + drift * h / hops;
+            tone.setFrequencies(heard);
+            tone.generate(samples, 0, hop);
+            for(int i = 0; i < hop; ++i) {
+                //quieter tone with some noise
+                samples[i] = (short) (samples[i] / 4 + random.nextGaussian() * 30);
+            }
+            engine.process(samples, 0);
+            if(tracker != null && tracker.update()) {
+                played = tracker.getFrequency(0);
+            }
+            if(engine.isReady()) {
+                error = Math.abs(heard - analyzer.getFrequency(0)) / analyzer.getBandWidth();
+                //the first hops still see the tone as found, before any correction
+                if(measured++ > 2 * CarrierTracker.COOLDOWN) {
+                    max = Math.max(max, error);
+                    sum += error;
+                }
+            }
+        }
+        return new double[] {max, sum / (measured - 2 * CarrierTracker.COOLDOWN - 1), error};
+    }
+}
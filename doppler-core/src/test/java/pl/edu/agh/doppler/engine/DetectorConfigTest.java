@@ -0,0 +1,46 @@
+package pl.edu.agh.doppler.engine;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks conversion of {@link DetectorConfig} times and frequency spans to hops and bands of
+ * every {@link EngineProfile}.
+ */
+public class DetectorConfigTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private final DetectorConfig config = new DetectorConfig();
+
+    public void testBaselineFrames() {
+        //non-overlapping 4096 sample frames, where the defaults are whole hops and bands
+        float bandWidth = (float) SAMPLE_RATE / 4096;
+        assertEquals(5, config.getGestureHops(SAMPLE_RATE, 4096));
+        assertEquals(4, config.getMovementBands(bandWidth));
+        assertEquals(BandwidthAnalyzer.RELEVANT_FREQ_WINDOW, config.getRelevantFreqBands(bandWidth));
+        assertEquals(20, config.getCalibrationHops(SAMPLE_RATE, 4096));
+    }
+
+    public void testSameDurationWithEveryProfile() {
+        for(EngineProfile profile : EngineProfile.values()) {
+            int hopSize = profile.getHopSize(SAMPLE_RATE);
+            float bandWidth = (float) SAMPLE_RATE / profile.getFrameSize(SAMPLE_RATE);
+            float hopMillis = 1000f * hopSize / SAMPLE_RATE;
+            assertEquals(profile.name(), config.getGestureWindow(),
+                    config.getGestureHops(SAMPLE_RATE, hopSize) * hopMillis, hopMillis / 2);
+            assertEquals(profile.name(), config.getCalibrationCycle(),
+                    config.getCalibrationHops(SAMPLE_RATE, hopSize) * hopMillis, hopMillis / 2);
+            assertEquals(profile.name(), config.getMovementBandwidth(),
+                    config.getMovementBands(bandWidth) * bandWidth, bandWidth / 2);
+            assertEquals(profile.name(), config.getRelevantFreqWindow(),
+                    config.getRelevantFreqBands(bandWidth) * bandWidth, bandWidth / 2);
+        }
+    }
+
+    public void testAtLeastOneHop() {
+        config.setGestureWindow(1);
+        config.setCalibrationCycle(1);
+        assertEquals(1, config.getGestureHops(SAMPLE_RATE, 2048));
+        assertEquals(1, config.getCalibrationHops(SAMPLE_RATE, 2048));
+    }
+}
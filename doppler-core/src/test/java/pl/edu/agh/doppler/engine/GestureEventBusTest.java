@@ -0,0 +1,203 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Publishes long random runs of gestures through {@link GestureEventBus} delivering on a pool of
+ * threads, and checks what listeners receive against what was published.
+ */
+public class GestureEventBusTest extends TestCase {
+
+    private static final int EVENTS = 200000;
+
+    private static final int THREADS = 4;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public void testOrderWithoutDrops() throws InterruptedException {
+        int[] published = randomGestures(new Random(25));
+        //the ring never fills, so every event is delivered
+        GestureEventBus bus = new GestureEventBus(DIRECT, EVENTS);
+        RecordingListener listener = run(bus, published);
+
+        assertEquals(0, bus.getDroppedEvents());
+        int[] expected = coalesce(published);
+        assertEquals(expected.length, listener.gestures.size());
+        for(int i = 0; i < expected.length; ++i) {
+            assertEquals("event " + i, expected[i], (int) listener.gestures.get(i));
+        }
+    }
+
+    public void testOrderWithDrops() throws InterruptedException {
+        int[] published = randomGestures(new Random(26));
+        GestureEventBus bus = new GestureEventBus(DIRECT);
+        RecordingListener listener = run(bus, published);
+
+        //every gesture is delivered or dropped, idle runs are never counted
+        int gestures = 0;
+        for(int gesture : published) {
+            if(gesture != GestureDetector.NOTHING && gesture != GestureDetector.IGNORED) {
+                gestures++;
+            }
+        }
+        int delivered = 0;
+        for(int gesture : listener.gestures) {
+            if(gesture != GestureDetector.NOTHING) {
+                delivered++;
+            }
+        }
+        assertEquals(gestures, delivered + bus.getDroppedEvents());
+        //the listener yields while the publisher never waits, so the small ring overflows
+        assertTrue(bus.getDroppedEvents() > 0);
+
+        //delivered events are published ones in the same order, an idle run is delivered once
+        int p = 0;
+        int previous = GestureDetector.IGNORED;
+        for(int i = 0; i < listener.gestures.size(); ++i) {
+            int gesture = listener.gestures.get(i);
+            assertFalse("repeated idle run at " + i,
+                    gesture == GestureDetector.NOTHING && previous == GestureDetector.NOTHING);
+            while(p < published.length && published[p] != gesture) {
+                p++;
+            }
+            assertTrue("event " + i + " out of order", p < published.length);
+            p++;
+            previous = gesture;
+        }
+    }
+
+    public void testRejectedDelivery() {
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        GestureEventBus bus = new GestureEventBus(shutDown);
+        RecordingListener listener = new RecordingListener(false);
+        bus.addListener(listener);
+
+        bus.publish(GestureDetector.PUSH);
+        bus.publish(GestureDetector.NOTHING);
+        assertEquals(1, bus.getDroppedEvents());
+
+        //rejected events are not delivered later and the rejected idle run is published again
+        bus.setExecutor(DIRECT);
+        bus.publish(GestureDetector.NOTHING);
+        bus.publish(GestureDetector.PULL);
+        assertEquals(2, listener.gestures.size());
+        assertEquals(GestureDetector.NOTHING, (int) listener.gestures.get(0));
+        assertEquals(GestureDetector.PULL, (int) listener.gestures.get(1));
+        assertEquals(1, bus.getDroppedEvents());
+    }
+
+    /** Publishes gestures and waits until delivery on a pool of threads is finished. */
+    private static RecordingListener run(GestureEventBus bus, int[] published) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        bus.setExecutor(executor);
+        RecordingListener listener = new RecordingListener(true);
+        bus.addListener(listener);
+        for(int gesture : published) {
+            bus.publish(gesture);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertFalse("concurrent delivery", listener.overlapped);
+        return listener;
+    }
+
+    /** Returns gestures of hops: idle runs with a few gestures and ignored hops. */
+    private static int[] randomGestures(Random random) {
+        int[] gestures = new int[EVENTS];
+        for(int i = 0; i < EVENTS; ++i) {
+            int kind = random.nextInt(8);
+            if(kind < 4) {
+                gestures[i] = GestureDetector.NOTHING;
+            } else if(kind == 4) {
+                gestures[i] = GestureDetector.IGNORED;
+            } else {
+                gestures[i] = GestureDetector.PUSH + random.nextInt(4);
+            }
+        }
+        return gestures;
+    }
+
+    /** Returns events expected to be delivered when none is dropped. */
+    private static int[] coalesce(int[] published) {
+        int[] events = new int[published.length];
+        int count = 0;
+        boolean idle = false;
+        for(int gesture : published) {
+            if(gesture == GestureDetector.IGNORED || (gesture == GestureDetector.NOTHING && idle)) {
+                continue;
+            }
+            events[count++] = gesture;
+            idle = gesture == GestureDetector.NOTHING;
+        }
+        int[] result = new int[count];
+        System.arraycopy(events, 0, result, 0, count);
+        return result;
+    }
+
+    /** Records delivered gestures, optionally yielding now and then to let the ring fill. */
+    private static class RecordingListener implements GestureListener {
+
+        final List<Integer> gestures = new ArrayList<Integer>();
+
+        private final boolean slow;
+
+        private volatile boolean delivering;
+
+        volatile boolean overlapped;
+
+        RecordingListener(boolean slow) {
+            this.slow = slow;
+        }
+
+        private void record(int gesture) {
+            if(delivering) {
+                overlapped = true;
+            }
+            delivering = true;
+            gestures.add(gesture);
+            if(slow && gestures.size() % 64 == 0) {
+                Thread.yield();
+            }
+            delivering = false;
+        }
+
+        @Override
+        public void onPush() {
+            record(GestureDetector.PUSH);
+        }
+
+        @Override
+        public void onPull() {
+            record(GestureDetector.PULL);
+        }
+
+        @Override
+        public void onTap() {
+            record(GestureDetector.TAP);
+        }
+
+        @Override
+        public void onDoubleTap() {
+            record(GestureDetector.DOUBLE_TAP);
+        }
+
+        @Override
+        public void onNothing() {
+            record(GestureDetector.NOTHING);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package pl.edu.agh.doppler.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import pl.edu.agh.doppler.fft.BlackmanHarrisWindow;
+import pl.edu.agh.doppler.fft.HammingWindow;
+import pl.edu.agh.doppler.fft.HannWindow;
+import pl.edu.agh.doppler.fft.WindowFunction;
+
+/**
+ * Checks how closely detection on power spectra, see {@link BandwidthAnalyzer#setPowerSpectrum(boolean)},
+ * approximates detection on magnitudes. Smoothing power instead of magnitude may move single bands at
+ * a threshold, so the modes are compared on how many movements of synthetic recordings they catch.
+ */
+public class PowerSpectrumTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final float CARRIER = 21500;
+
+    /** Recordings of every setup. */
+    private static final int SEEDS = 8;
+
+    /** Length of a recording, one movement every {@link #MOVEMENT_PERIOD} seconds. */
+    private static final int SECONDS = 120;
+
+    /** Seconds between movements, longer than a gesture window and the wait after a gesture. */
+    private static final int MOVEMENT_PERIOD = 2;
+
+    /** Fraction of movements caught with magnitudes that power mode may miss. */
+    private static final double MISSED_TOLERANCE = 0.15;
+
+    /** Fraction of false gestures with magnitudes that power mode may add. */
+    private static final double FALSE_TOLERANCE = 0.05;
+
+    public void testNormalRecordings() {
+        assertPowerAsGood(0.3, 0.01, 4096, 2048, new HannWindow());
+    }
+
+    public void testLoudRecordings() {
+        assertPowerAsGood(0.8, 0.01, 4096, 2048, new HannWindow());
+    }
+
+    public void testBlackmanHarrisWindow() {
+        assertPowerAsGood(0.3, 0.01, 4096, 1024, new BlackmanHarrisWindow());
+    }
+
+    public void testShortFrames() {
+        assertPowerAsGood(0.3, 0.01, 2048, 512, new HammingWindow());
+    }
+
+    public void testNoisyRecordings() {
+        assertPowerAsGood(0.3, 0.05, 4096, 1024, new HannWindow());
+    }
+
+    public void testSameBandwidthsOfSingleSpectrum() {
+        //without smoothing over hops squaring changes no comparison
+        Random random = new Random(19);
+        float[] magnitudes = new float[67];
+        float[] powers = new float[67];
+        int[] expected = new int[4];
+        int[] actual = new int[4];
+        for(int i = 0; i < 10000; ++i) {
+            for(int b = 0; b < magnitudes.length; ++b) {
+                magnitudes[b] = random.nextInt(4) == 0 ? random.nextFloat() : random.nextFloat() * 0.05f;
+                powers[b] = magnitudes[b] * magnitudes[b];
+            }
+            magnitudes[33] = 1;
+            powers[33] = 1;
+            BandwidthAnalyzer.scanBandwidth(magnitudes, 33, 0.1, 0.3, 33, expected);
+            BandwidthAnalyzer.scanBandwidth(powers, 33, 0.1 * 0.1, 0.3 * 0.3, 33, actual);
+            assertEquals(expected[BandwidthAnalyzer.LEFT_BANDWIDTH], actual[BandwidthAnalyzer.LEFT_BANDWIDTH]);
+            assertEquals(expected[BandwidthAnalyzer.RIGHT_BANDWIDTH], actual[BandwidthAnalyzer.RIGHT_BANDWIDTH]);
+        }
+    }
+
+    /**
+     * Power mode has to catch about as many movements as magnitudes, with about as many false
+     * gestures. Smoothing power follows a loud reflection more, which catches more movements with
+     * long frames and a Hann window, and fewer but with fewer false gestures with a Blackman-Harris one.
+     */
+    private static void assertPowerAsGood(double amplitude, double noise, int frameSize, int hopSize,
+                                          WindowFunction window) {
+        int[] magnitude = new int[2];
+        int[] power = new int[2];
+        for(long seed = 1; seed <= SEEDS; ++seed) {
+            detect(false, amplitude, noise, frameSize, hopSize, window, seed, magnitude);
+            detect(true, amplitude, noise, frameSize, hopSize, window, seed, power);
+        }
+        String message = "hits/false gestures of magnitudes " + magnitude[0] + "/" + magnitude[1]
+                + ", of power " + power[0] + "/" + power[1];
+        assertTrue(message, magnitude[0] > 0);
+        assertTrue(message, power[0] >= magnitude[0] - magnitude[0] * MISSED_TOLERANCE);
+        assertTrue(message, power[1] <= magnitude[1] + magnitude[1] * FALSE_TOLERANCE);
+    }
+
+    /**
+     * Runs detection over a synthetic recording with a movement every {@link #MOVEMENT_PERIOD} seconds.
+     *
+     * @param result receives caught movements at 0 and gestures outside of movements at 1, added
+     */
+    private static void detect(boolean power, double amplitude, double noise, int frameSize, int hopSize,
+                               WindowFunction window, long seed, int[] result) {
+        BandwidthAnalyzer analyzer = new BandwidthAnalyzer(SAMPLE_RATE, frameSize, hopSize, window, 20500, 22500);
+        analyzer.setPowerSpectrum(power);
+        DetectorConfig config = new DetectorConfig();
+        GestureEngine engine = new GestureEngine(analyzer, new float[] {CARRIER}, 1000, SAMPLE_RATE, config);
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, CARRIER, amplitude, noise, false, seed);
+        Random random = new Random(seed);
+        short[] hop = new short[hopSize];
+        int hopsPerMovement = MOVEMENT_PERIOD * SAMPLE_RATE / hopSize;
+        int start = hopsPerMovement / 4;
+        int length = Math.max(1, hopsPerMovement / 16);
+        //gestures are reported a gesture window after the last direction change
+        int reported = start + length + config.getGestureHops(SAMPLE_RATE, hopSize) + 2;
+        boolean caught = false;
+        source.start();
+        for(int i = 0; i < SAMPLE_RATE * SECONDS / hopSize; ++i) {
+            int k = i % hopsPerMovement;
+            if(k == 0) {
+                if(caught) {
+                    result[0]++;
+                }
+                caught = false;
+            }
+            if(k == start) {
+                double shift = (random.nextBoolean() ? 1 : -1) * (60 + random.nextInt(200));
+                source.setReflection(shift, amplitude * (0.1 + 0.3 * random.nextDouble()));
+            }
+            if(k == start + length) {
+                source.setReflection(0, 0);
+            }
+            source.read(hop, 0, hopSize);
+            int gesture = engine.process(hop, 0);
+            if(gesture > GestureDetector.NOTHING) {
+                if(k >= start && k < reported) {
+                    caught = true;
+                } else {
+                    result[1]++;
+                }
+            }
+        }
+    }
+}
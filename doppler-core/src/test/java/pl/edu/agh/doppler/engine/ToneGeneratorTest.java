@@ -0,0 +1,109 @@
+package pl.edu.agh.doppler.engine;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks tones of {@link ToneGenerator} against an ideal sine of the same phase accumulator.
+ */
+public class ToneGeneratorTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int CHUNK = 512;
+
+    /** Error allowed against an ideal sine, in 16 bit steps: table interpolation plus rounding. */
+    private static final double MAX_ERROR = 1.5;
+
+    public void testToneMatchesIdealSine() {
+        for(double frequency : new double[] {440, 18000, 20000, 21500, 22000}) {
+            ToneGenerator generator = new ToneGenerator(SAMPLE_RATE, frequency);
+            short[] chunk = new short[CHUNK];
+            //first chunk fades in
+            generator.generate(chunk, 0, CHUNK);
+            long phase = (long) CHUNK * increment(generator, 0);
+            for(int c = 0; c < 200; ++c) {
+                generator.generate(chunk, 0, CHUNK);
+                phase = assertIdealTone(chunk, phase, increment(generator, 0), Short.MAX_VALUE, "" + frequency);
+            }
+        }
+    }
+
+    public void testFrequencyResolution() {
+        ToneGenerator generator = new ToneGenerator(SAMPLE_RATE, 20000.3, 19000);
+        double[] frequencies = generator.getFrequencies();
+        //a period of the phase is 2^32, so a frequency is off by at most half of its step
+        double step = (double) SAMPLE_RATE / 4294967296.0;
+        assertEquals(20000.3, frequencies[0], step / 2);
+        assertEquals(19000, frequencies[1], step / 2);
+    }
+
+    public void testRetuneKeepsPhase() {
+        ToneGenerator generator = new ToneGenerator(SAMPLE_RATE, 20000);
+        short[] chunk = new short[CHUNK];
+        generator.generate(chunk, 0, CHUNK);
+        long phase = (long) CHUNK * increment(generator, 0);
+        double[] retunes = {20003.7, 19990, 20000.1, 21000, 20000};
+        for(double frequency : retunes) {
+            generator.generate(chunk, 0, CHUNK);
+            phase = assertIdealTone(chunk, phase, increment(generator, 0), Short.MAX_VALUE, "before " + frequency);
+            int last = chunk[CHUNK - 1];
+
+            generator.setFrequencies(frequency);
+            assertEquals((int) phase, generator.getPhase(0));
+            generator.generate(chunk, 0, CHUNK);
+            //the new tone goes on from the phase of the old one
+            phase = assertIdealTone(chunk, phase, increment(generator, 0), Short.MAX_VALUE, "after " + frequency);
+            //no jump larger than the steepest step of a full scale tone
+            double maxStep = 2 * Math.PI * 21000 / SAMPLE_RATE * Short.MAX_VALUE + 2 * MAX_ERROR;
+            assertTrue("jump at " + frequency, Math.abs(chunk[0] - last) <= maxStep);
+        }
+    }
+
+    public void testAddedToneFadesIn() {
+        ToneGenerator generator = new ToneGenerator(SAMPLE_RATE, 20000);
+        short[] chunk = new short[CHUNK];
+        generator.generate(chunk, 0, CHUNK);
+        generator.generate(chunk, 0, CHUNK);
+        int kept = generator.getPhase(0);
+
+        generator.setFrequencies(20000, 19000);
+        generator.generate(chunk, 0, CHUNK);
+        //first tone keeps its phase, the second starts at zero
+        assertEquals(kept + CHUNK * increment(generator, 0), generator.getPhase(0));
+        assertEquals(CHUNK * increment(generator, 1), generator.getPhase(1));
+
+        //then both tones share the amplitude
+        long[] phases = {generator.getPhase(0) & 0xffffffffL, generator.getPhase(1) & 0xffffffffL};
+        for(int c = 0; c < 50; ++c) {
+            generator.generate(chunk, 0, CHUNK);
+            for(int i = 0; i < CHUNK; ++i) {
+                double ideal = 0;
+                for(int t = 0; t < 2; ++t) {
+                    ideal += Math.sin(2 * Math.PI * (phases[t] & 0xffffffffL) / 4294967296.0);
+                    phases[t] += increment(generator, t) & 0xffffffffL;
+                }
+                ideal *= Short.MAX_VALUE / 2.0;
+                assertEquals(ideal, chunk[i], 2 * MAX_ERROR);
+            }
+        }
+    }
+
+    /** Returns phase increment of given tone. */
+    private static int increment(ToneGenerator generator, int tone) {
+        return (int) Math.round(generator.getFrequencies()[tone] / SAMPLE_RATE * 4294967296.0);
+    }
+
+    /**
+     * Checks samples against an ideal sine starting at given phase.
+     *
+     * @return phase after the samples
+     */
+    private static long assertIdealTone(short[] samples, long phase, int increment, double amplitude, String message) {
+        for(short sample : samples) {
+            double ideal = Math.sin(2 * Math.PI * (phase & 0xffffffffL) / 4294967296.0) * amplitude;
+            assertEquals(message, ideal, sample, MAX_ERROR);
+            phase += increment;
+        }
+        return phase;
+    }
+}
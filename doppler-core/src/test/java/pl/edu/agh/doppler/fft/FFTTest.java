@@ -0,0 +1,66 @@
+package pl.edu.agh.doppler.fft;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks inverse transforms of {@link FFT} against signals computed directly.
+ */
+public class FFTTest extends TestCase {
+
+    private static final int TIME_SIZE = 16;
+
+    private static final float TOLERANCE = 1e-5f;
+
+    private final FFT fft = new FFT(TIME_SIZE, 44100);
+
+    public void testInverseOfForward() {
+        float[] samples = new float[TIME_SIZE];
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = (float) (Math.sin(2 * Math.PI * 3 * i / TIME_SIZE) + 0.25 * Math.cos(2 * Math.PI * 5 * i / TIME_SIZE));
+        }
+        fft.forward(samples.clone());
+        float[] result = new float[TIME_SIZE];
+        fft.inverse(result);
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            assertEquals(samples[i], result[i], TOLERANCE);
+        }
+    }
+
+    public void testInverseOfGivenSpectrumAfterForward() {
+        //leaves the upper half of the spectrum to be mirrored from the lower half
+        float[] samples = new float[TIME_SIZE];
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = (float) Math.sin(2 * Math.PI * i / TIME_SIZE);
+        }
+        fft.forward(samples);
+
+        //single bin in the upper half, none in the lower one
+        float[] real = new float[TIME_SIZE];
+        float[] imag = new float[TIME_SIZE];
+        real[13] = TIME_SIZE;
+        float[] result = new float[TIME_SIZE];
+        fft.inverse(real, imag, result);
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            assertEquals(Math.cos(2 * Math.PI * 13 * i / TIME_SIZE), result[i], TOLERANCE);
+        }
+    }
+
+    public void testBandsOfGivenSpectrumAfterForward() {
+        float[] samples = new float[TIME_SIZE];
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = (float) Math.sin(2 * Math.PI * 3 * i / TIME_SIZE);
+        }
+        fft.forward(samples);
+        assertEquals(TIME_SIZE / 2, fft.getBand(3), TOLERANCE);
+
+        //single bin at 5, bands read before must not survive from the forward transform
+        float[] real = new float[TIME_SIZE];
+        float[] imag = new float[TIME_SIZE];
+        real[5] = TIME_SIZE;
+        real[TIME_SIZE - 5] = TIME_SIZE;
+        fft.inverse(real, imag, new float[TIME_SIZE]);
+        for(int k = 0; k <= TIME_SIZE / 2; ++k) {
+            assertEquals("band " + k, k == 5 ? TIME_SIZE : 0, fft.getBand(k), TOLERANCE);
+        }
+    }
+}
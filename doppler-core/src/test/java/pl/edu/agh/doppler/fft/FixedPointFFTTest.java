@@ -0,0 +1,174 @@
+package pl.edu.agh.doppler.fft;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import pl.edu.agh.doppler.engine.BandwidthAnalyzer;
+import pl.edu.agh.doppler.engine.SyntheticAudioSource;
+
+/**
+ * Compares {@link FixedPointFFT} of 16-bit samples with a double precision DFT of the same samples
+ * divided by {@link Short#MAX_VALUE}.
+ */
+public class FixedPointFFTTest extends TestCase {
+
+    private static final int TIME_SIZE = 4096;
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int FIRST_BAND = 1780;
+
+    private static final int LAST_BAND = 1935;
+
+    /** Largest band error allowed, relative to the loudest band. Errors measured are about 2e-5. */
+    private static final float TOLERANCE = 4e-5f;
+
+    private final FixedPointFFT fixedPoint = new FixedPointFFT(TIME_SIZE, SAMPLE_RATE, FIRST_BAND, LAST_BAND,
+            new HannWindow());
+
+    private final float[] frame = new float[TIME_SIZE];
+
+    /** Windowed frame in double precision. */
+    private final double[] windowed = new double[TIME_SIZE];
+
+    /** Bands of the double precision DFT, indexed by band. */
+    private final float[] reference = new float[LAST_BAND + 1];
+
+    private final double[] cos = new double[TIME_SIZE];
+
+    private final double[] sin = new double[TIME_SIZE];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            cos[i] = Math.cos(2 * Math.PI * i / TIME_SIZE);
+            sin[i] = Math.sin(2 * Math.PI * i / TIME_SIZE);
+        }
+    }
+
+    public void testRandomFrames() {
+        Random random = new Random(18);
+        short[] samples = new short[TIME_SIZE];
+        for(int amplitude = 1; amplitude <= 32768; amplitude *= 8) {
+            for(int i = 0; i < TIME_SIZE; ++i) {
+                samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                        random.nextInt(2 * amplitude + 1) - amplitude));
+            }
+            assertSameBands(samples);
+        }
+    }
+
+    public void testFullScaleFrames() {
+        short[] samples = new short[TIME_SIZE];
+        //clipped carrier, every sample at one of the 16-bit limits
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = Math.sin(2 * Math.PI * 20000 * i / SAMPLE_RATE) >= 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        assertSameBands(samples);
+
+        //full scale carrier
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = (short) Math.round(Math.sin(2 * Math.PI * 20000 * i / SAMPLE_RATE) * 32767.5 - 0.5);
+        }
+        assertSameBands(samples);
+    }
+
+    public void testFullScaleEdgeBands() {
+        //DC and Nyquist bands are sums of the two largest values of the packed transform
+        int half = TIME_SIZE / 2;
+        FixedPointFFT dc = new FixedPointFFT(TIME_SIZE, SAMPLE_RATE, 0, 1, null);
+        FixedPointFFT nyquist = new FixedPointFFT(TIME_SIZE, SAMPLE_RATE, half - 1, half, null);
+        short[] samples = new short[TIME_SIZE];
+        for(short value : new short[] {Short.MAX_VALUE, Short.MIN_VALUE}) {
+            for(int i = 0; i < TIME_SIZE; ++i) {
+                samples[i] = value;
+            }
+            //without a window -32768 is -1, see testFloatInputMatchesShortInput()
+            dc.forward(samples, 0, 1);
+            assertEquals("value " + value, TIME_SIZE, dc.getBand(0), TIME_SIZE * TOLERANCE);
+            for(int i = 0; i < TIME_SIZE; ++i) {
+                samples[i] = (short) (i % 2 == 0 ? value : -value - (value < 0 ? 1 : 0));
+            }
+            nyquist.forward(samples, 0, 1);
+            assertEquals("value " + value, TIME_SIZE, nyquist.getBand(half), TIME_SIZE * TOLERANCE);
+        }
+    }
+
+    public void testFloatInputMatchesShortInput() {
+        short[] samples = new short[TIME_SIZE];
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            samples[i] = i % 2 == 0 ? Short.MIN_VALUE : Short.MAX_VALUE;
+        }
+        //window is only applied to 16-bit samples. -32768 / 32767 is clamped to -1, which gives
+        //the same block value as -32768 times the Q15 one
+        FixedPointFFT unwindowed = new FixedPointFFT(TIME_SIZE, SAMPLE_RATE, FIRST_BAND, LAST_BAND, null);
+        unwindowed.forward(samples, 0, 1);
+        float[] expected = new float[LAST_BAND - FIRST_BAND + 1];
+        for(int b = FIRST_BAND; b <= LAST_BAND; ++b) {
+            expected[b - FIRST_BAND] = unwindowed.getBand(b);
+        }
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            frame[i] = (float) samples[i] / Short.MAX_VALUE;
+        }
+        unwindowed.forward(frame);
+        for(int b = FIRST_BAND; b <= LAST_BAND; ++b) {
+            assertEquals("band " + b, expected[b - FIRST_BAND], unwindowed.getBand(b), expected[b - FIRST_BAND] * 1e-6f);
+        }
+    }
+
+    public void testSameBandwidthsOfDopplerFrames() {
+        //the loudest carrier clips with the reflection added
+        for(double amplitude : new double[] {0.01, 0.5, 0.99}) {
+            SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, 20000, amplitude, 0.01, false, 5);
+            source.start();
+            short[] samples = new short[TIME_SIZE];
+            int[] fixedBandwidths = new int[4];
+            int[] referenceBandwidths = new int[4];
+            float[] fixedSpectrum = new float[LAST_BAND + 1];
+            int primary = Math.round(20000f * TIME_SIZE / SAMPLE_RATE);
+            int frames = 0;
+            int equal = 0;
+            for(int shift = -200; shift <= 200; shift += 5) {
+                source.setReflection(shift, shift == 0 ? 0 : 0.2 * amplitude);
+                source.read(samples, 0, TIME_SIZE);
+                assertSameBands(samples);
+
+                for(int b = FIRST_BAND; b <= LAST_BAND; ++b) {
+                    fixedSpectrum[b] = fixedPoint.getBand(b);
+                }
+                BandwidthAnalyzer.scanBandwidth(fixedSpectrum, primary, 0.1, 0.3, 33, fixedBandwidths);
+                BandwidthAnalyzer.scanBandwidth(reference, primary, 0.1, 0.3, 33, referenceBandwidths);
+                frames++;
+                if(fixedBandwidths[BandwidthAnalyzer.LEFT_BANDWIDTH] == referenceBandwidths[BandwidthAnalyzer.LEFT_BANDWIDTH]
+                        && fixedBandwidths[BandwidthAnalyzer.RIGHT_BANDWIDTH] == referenceBandwidths[BandwidthAnalyzer.RIGHT_BANDWIDTH]) {
+                    equal++;
+                }
+            }
+            assertEquals("amplitude " + amplitude, frames, equal);
+        }
+    }
+
+    /** Transforms samples in fixed point and in double precision, checks the analyzed bands. */
+    private void assertSameBands(short[] samples) {
+        fixedPoint.forward(samples, 0, 1);
+        for(int i = 0; i < TIME_SIZE; ++i) {
+            windowed[i] = (0.5 - 0.5 * cos[i]) * samples[i] / Short.MAX_VALUE;
+        }
+        float loudest = 0;
+        for(int b = FIRST_BAND; b <= LAST_BAND; ++b) {
+            double re = 0;
+            double im = 0;
+            for(int i = 0; i < TIME_SIZE; ++i) {
+                int angle = b * i & (TIME_SIZE - 1);
+                re += windowed[i] * cos[angle];
+                im -= windowed[i] * sin[angle];
+            }
+            reference[b] = (float) Math.sqrt(re * re + im * im);
+            loudest = Math.max(loudest, reference[b]);
+        }
+        for(int b = FIRST_BAND; b <= LAST_BAND; ++b) {
+            assertEquals("band " + b, reference[b], fixedPoint.getBand(b), loudest * TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package pl.edu.agh.doppler.fft;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * An {@link FFT} computing the butterflies of {@link Radix4FFT} with the Java Vector
+ * API. <code>real</code> and <code>imag</code> stay separate arrays, so a vector of
+ * consecutive real parts and a vector of the matching imaginary parts are loaded
+ * without shuffling, and a whole vector of butterflies is done per instruction.
+ * <p>
+ * Butterflies of a pass are vectorized over the position in the block, which needs
+ * the twiddles of that position to be consecutive. They are copied from the plan
+ * into contiguous tables: the twiddles of a pass with <code>quarter</code>
+ * butterflies per block are at <code>quarter</code> to <code>2 * quarter - 1</code>.
+ * Passes with fewer butterflies per block than vector lanes are done with scalar code.
+ * <p>
+ * The input is in the same radix-2 bit reversed order as in {@link FFT}, so the
+ * spectrum, <code>getBand()</code> and <code>specSize()</code> are identical up to
+ * rounding. Needs <code>--add-modules jdk.incubator.vector</code>, use
+ * {@link FourierTransforms#create(int, float, FourierTransforms.Kernel)} to fall back
+ * to a scalar kernel where it is not available.
+ */
+public class VectorFFT extends FFT
+{
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    // w1 = e^(-2*pi*i*j/(4*quarter)), w2 = w1^2, w3 = w1^3 at quarter + j
+    private final float[] w1Real;
+    private final float[] w1Imag;
+    private final float[] w2Real;
+    private final float[] w2Imag;
+    private final float[] w3Real;
+    private final float[] w3Imag;
+
+    /**
+     * Constructs a vector FFT that will accept sample buffers that are
+     * <code>timeSize</code> long and have been recorded with a sample rate of
+     * <code>sampleRate</code>. <code>timeSize</code> <em>must</em> be a
+     * power of two. This will throw an exception if it is not.
+     *
+     * @param timeSize
+     *          the length of the sample buffers you will be analyzing
+     * @param sampleRate
+     *          the sample rate of the audio you will be analyzing
+     */
+    public VectorFFT(int timeSize, float sampleRate)
+    {
+        super(timeSize, sampleRate);
+        int size = Math.max(2, timeSize / 2);
+        w1Real = new float[size];
+        w1Imag = new float[size];
+        w2Real = new float[size];
+        w2Imag = new float[size];
+        w3Real = new float[size];
+        w3Imag = new float[size];
+        for (int quarter = 1; 4 * quarter <= timeSize; quarter *= 2)
+        {
+            int stride = timeSize / (4 * quarter);
+            for (int j = 0; j < quarter; j++)
+            {
+                w1Real[quarter + j] = plan.twiddleReal[j * stride];
+                w1Imag[quarter + j] = plan.twiddleImag[j * stride];
+                w2Real[quarter + j] = plan.twiddleReal[2 * j * stride];
+                w2Imag[quarter + j] = plan.twiddleImag[2 * j * stride];
+                w3Real[quarter + j] = plan.twiddleReal[3 * j * stride];
+                w3Imag[quarter + j] = plan.twiddleImag[3 * j * stride];
+            }
+        }
+    }
+
+    /** Returns number of floats in a vector on this JVM. */
+    public static int lanes()
+    {
+        return SPECIES.length();
+    }
+
+    @Override
+    protected void fft(int n)
+    {
+        int quarter = 1;
+        // odd power of two, start with a radix-2 pass. its only twiddle is 1.
+        if ((Integer.numberOfTrailingZeros(n) & 1) == 1)
+        {
+            for (int i = 0; i < n; i += 2)
+            {
+                float tr = real[i + 1];
+                float ti = imag[i + 1];
+                real[i + 1] = real[i] - tr;
+                imag[i + 1] = imag[i] - ti;
+                real[i] += tr;
+                imag[i] += ti;
+            }
+            quarter = 2;
+        }
+
+        int lanes = SPECIES.length();
+        for (; quarter < n; quarter *= 4)
+        {
+            if (quarter < lanes)
+            {
+                scalarPass(n, quarter);
+            }
+            else
+            {
+                vectorPass(n, quarter, lanes);
+            }
+        }
+    }
+
+    // same butterflies as Radix4FFT, see there for the derivation
+    private void scalarPass(int n, int quarter)
+    {
+        int block = 4 * quarter;
+        for (int j = 0; j < quarter; j++)
+        {
+            int t = quarter + j;
+            float w1r = w1Real[t];
+            float w1i = w1Imag[t];
+            float w2r = w2Real[t];
+            float w2i = w2Imag[t];
+            float w3r = w3Real[t];
+            float w3i = w3Imag[t];
+
+            for (int i0 = j; i0 < n; i0 += block)
+            {
+                int i1 = i0 + quarter;
+                int i2 = i1 + quarter;
+                int i3 = i2 + quarter;
+
+                float br = w2r * real[i1] - w2i * imag[i1];
+                float bi = w2r * imag[i1] + w2i * real[i1];
+                float cr = w1r * real[i2] - w1i * imag[i2];
+                float ci = w1r * imag[i2] + w1i * real[i2];
+                float dr = w3r * real[i3] - w3i * imag[i3];
+                float di = w3r * imag[i3] + w3i * real[i3];
+
+                float t0r = real[i0] + br;
+                float t0i = imag[i0] + bi;
+                float t1r = real[i0] - br;
+                float t1i = imag[i0] - bi;
+                float u0r = cr + dr;
+                float u0i = ci + di;
+                float u1r = cr - dr;
+                float u1i = ci - di;
+
+                real[i0] = t0r + u0r;
+                imag[i0] = t0i + u0i;
+                real[i2] = t0r - u0r;
+                imag[i2] = t0i - u0i;
+                real[i1] = t1r + u1i;
+                imag[i1] = t1i - u1r;
+                real[i3] = t1r - u1i;
+                imag[i3] = t1i + u1r;
+            }
+        }
+    }
+
+    // quarter is a multiple of lanes, so a quarter of a block holds whole vectors
+    private void vectorPass(int n, int quarter, int lanes)
+    {
+        int block = 4 * quarter;
+        for (int start = 0; start < n; start += block)
+        {
+            for (int j = 0; j < quarter; j += lanes)
+            {
+                int t = quarter + j;
+                int i0 = start + j;
+                int i1 = i0 + quarter;
+                int i2 = i1 + quarter;
+                int i3 = i2 + quarter;
+
+                FloatVector wr = FloatVector.fromArray(SPECIES, w2Real, t);
+                FloatVector wi = FloatVector.fromArray(SPECIES, w2Imag, t);
+                FloatVector xr = FloatVector.fromArray(SPECIES, real, i1);
+                FloatVector xi = FloatVector.fromArray(SPECIES, imag, i1);
+                FloatVector br = wr.mul(xr).sub(wi.mul(xi));
+                FloatVector bi = wr.mul(xi).add(wi.mul(xr));
+
+                wr = FloatVector.fromArray(SPECIES, w1Real, t);
+                wi = FloatVector.fromArray(SPECIES, w1Imag, t);
+                xr = FloatVector.fromArray(SPECIES, real, i2);
+                xi = FloatVector.fromArray(SPECIES, imag, i2);
+                FloatVector cr = wr.mul(xr).sub(wi.mul(xi));
+                FloatVector ci = wr.mul(xi).add(wi.mul(xr));
+
+                wr = FloatVector.fromArray(SPECIES, w3Real, t);
+                wi = FloatVector.fromArray(SPECIES, w3Imag, t);
+                xr = FloatVector.fromArray(SPECIES, real, i3);
+                xi = FloatVector.fromArray(SPECIES, imag, i3);
+                FloatVector dr = wr.mul(xr).sub(wi.mul(xi));
+                FloatVector di = wr.mul(xi).add(wi.mul(xr));
+
+                FloatVector ar = FloatVector.fromArray(SPECIES, real, i0);
+                FloatVector ai = FloatVector.fromArray(SPECIES, imag, i0);
+                FloatVector t0r = ar.add(br);
+                FloatVector t0i = ai.add(bi);
+                FloatVector t1r = ar.sub(br);
+                FloatVector t1i = ai.sub(bi);
+                FloatVector u0r = cr.add(dr);
+                FloatVector u0i = ci.add(di);
+                FloatVector u1r = cr.sub(dr);
+                FloatVector u1i = ci.sub(di);
+
+                t0r.add(u0r).intoArray(real, i0);
+                t0i.add(u0i).intoArray(imag, i0);
+                t0r.sub(u0r).intoArray(real, i2);
+                t0i.sub(u0i).intoArray(imag, i2);
+                t1r.add(u1i).intoArray(real, i1);
+                t1i.sub(u1r).intoArray(imag, i1);
+                t1r.sub(u1i).intoArray(real, i3);
+                t1i.add(u1r).intoArray(imag, i3);
+            }
+        }
+    }
+}